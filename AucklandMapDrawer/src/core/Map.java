@@ -1,18 +1,39 @@
 package core;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import util.CoordinateBuffer;
+import util.KdTree;
+import util.LoadProgress;
+import util.MpReader;
 import util.NodeArray;
+import util.PackedRTree;
 import util.RoadArray;
-import util.TrieTree;
+import util.RoadNameIndex;
+import util.StringDictionary;
+import util.TabFile;
+import util.TabLine;
+import util.TileCache;
 
 /**
  * A Map contains information on all objects that are used to construct and draw
@@ -29,47 +50,428 @@ public class Map {
 	private String directory;
 	private NodeArray nodes = new NodeArray();
 	private RoadArray roads = new RoadArray();
-	private List<Polygon> polygons = new ArrayList<Polygon>();
+	private StringDictionary names = new StringDictionary();
+	private CoordinateBuffer segmentPoints = new CoordinateBuffer();
+	private RoadGraph graph;
+	private KdTree nodeTree;
+	private Segment[] drawnSegments;
+	private PackedRTree segmentTree;
+	private volatile PolygonStore polygons = new PolygonStore();
 	private List<Segment> markedPath = new ArrayList<Segment>();
-	private Set<Node> articulations = new HashSet<Node>();
-	private boolean polygonsExist;
+	private List<Node> articulations = new ArrayList<Node>();
+	private volatile boolean polygonsExist;
 	private boolean useSpeedHeristic = false;
 	private Road selectedRoad;
 	private Node selectedSourceNode;
 	private Node selectedDestNode;
-	private TrieTree roadNames = new TrieTree();
+	private int hoveredNode = -1;
+
+	// Counts changes to what is drawn, other than moving the map
+	private volatile int changes;
+
+	// Whether the selection has changed since its details were shown
+	private boolean detailsChanged = true;
+	private volatile RoadNameIndex roadNames;
 	private Mapper map;
 
+	// Drawn tiles of the polygons, roads and intersections
+	private TileCache tiles = new TileCache(TILE_CACHE_SIZE);
+
+	// Reused by each draw for the tiles covering the view and the positions
+	// of those missing from the cache
+	private BufferedImage[] shownTiles = new BufferedImage[0];
+	private int[] missingTiles = new int[0];
+	private Rectangle clip = new Rectangle();
+
+	// Load stages still running after the road network is usable
+	private LoadProgress progress;
+	private Future<?> polygonsLoading, namesLoading;
+	private volatile long polygonsShown;
+	private java.util.Map<String, Long> stageTimes = Collections
+			.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	// Whether data files are read through memory mapped parallel parsing
+	private static boolean mappedLoading = true;
+
+	// How long polygons take to fade in once loaded, in milliseconds
+	private static final int FADE_TIME = 400;
+
+	// How close in pixels the mouse must be to a node to highlight it
+	private static final int HOVER_RADIUS = 10;
+
+	// How far in pixels outside the view things are still drawn, covering
+	// the markers drawn around nodes
+	private static final int VIEW_MARGIN = 8;
+
+	// The zoom from which polygons of end level 0 are drawn. Each end level
+	// above that is drawn from a quarter of the zoom of the one below
+	private static final double DETAIL_ZOOM = 32;
+
+	// The most pixels an area can have for its nodes to be drawn once per
+	// pixel, which needs a bit for each
+	private static final long MAX_DEDUPE_PIXELS = 1 << 26;
+
+	// The width and height of a tile in pixels, and the bytes of tiles kept
+	private static final int TILE_SIZE = 256;
+	private static final long TILE_CACHE_SIZE = 64 << 20;
+
+	// Draws the tiles missing from the view, a thread for each core. The
+	// threads are daemons so they never keep the program running
+	private static final ExecutorService RENDERERS = Executors
+			.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Tile renderer");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+
+	// The lines of the roads drawn in one colour, gathered so they are drawn
+	// in one call. Reused between draws, one for each drawing thread
+	private static final ThreadLocal<Path2D> LINES = new ThreadLocal<Path2D>() {
+		@Override
+		protected Path2D initialValue() {
+			return new Path2D.Float();
+		}
+	};
+
+	// The colour of the window behind the map
+	static final Color BACKGROUND = new Color(239, 232, 204);
+
 	/**
 	 * Initializes all Nodes, Roads and Segments into a graphed map using the
-	 * information contained in the directory
+	 * information contained in the directory. If the directory contains a
+	 * snapshot compiled from the current data files it is loaded instead
 	 *
 	 * @param dir
 	 *            The directory containing the data files
 	 */
 	public Map(String dir, Mapper mapper) {
+		this(dir, mapper, new LoadProgress());
+	}
+
+	/**
+	 * Initializes all Nodes, Roads and Segments into a graphed map using the
+	 * information contained in the directory, reporting how far through each
+	 * file loading has got. Cancelling the progress abandons the load,
+	 * including any stages still running in the background
+	 *
+	 * @param dir
+	 *            The directory containing the data files
+	 * @param progress
+	 *            The progress of the load
+	 * @throws IllegalStateException
+	 *             If the nodes, roads or segments could not be loaded
+	 */
+	public Map(String dir, Mapper mapper, LoadProgress progress) {
 		directory = dir;
 		zoomLevel = 2;
 		polygonsExist = true;
-		initNodes();
-		initRoads();
-		initSegments();
-		initPolygons();
-		buildGraph();
 		map = mapper;
+		this.progress = progress;
+		long start = System.nanoTime();
+		if (initSnapshot()) {
+			stageTime("snapshot", start);
+		} else {
+			load(start);
+		}
+	}
+
+	/**
+	 * Reads the data files on all cores. Nodes, roads and polygons are read
+	 * at the same time, segments once the roads they belong to are loaded and
+	 * the graph once both nodes and segments exist. The constructor only
+	 * waits for the road network, polygons and the road name index continue
+	 * loading in the background and the map is repainted once they are ready
+	 *
+	 * @param start
+	 *            The time loading started, in nanoseconds
+	 * @throws IllegalStateException
+	 *             If the nodes, roads or segments could not be loaded
+	 */
+	private void load(final long start) {
+		ExecutorService pool = Executors.newCachedThreadPool();
+		try {
+			Future<?> nodesLoading = pool.submit(new Runnable() {
+				public void run() {
+					long stage = System.nanoTime();
+					initNodes();
+					stageTime("nodes", stage);
+				}
+			});
+			Future<?> roadsLoading = pool.submit(new Runnable() {
+				public void run() {
+					long stage = System.nanoTime();
+					initRoads();
+					stageTime("roads", stage);
+				}
+			});
+			polygonsLoading = pool.submit(new Runnable() {
+				public void run() {
+					long stage = System.nanoTime();
+					initPolygons();
+					stageTime("polygons", stage);
+					repaint();
+				}
+			});
+
+			roadsLoading.get();
+			if (progress.isCancelled()) {
+				return;
+			}
+			namesLoading = pool.submit(new Runnable() {
+				public void run() {
+					long stage = System.nanoTime();
+					initRoadNames();
+					stageTime("names", stage);
+				}
+			});
+			long stage = System.nanoTime();
+			initSegments();
+			stageTime("segments", stage);
+			nodesLoading.get();
+			if (progress.isCancelled()) {
+				return;
+			}
+			stage = System.nanoTime();
+			buildGraph();
+			stageTime("graph", stage);
+
+			pool.submit(new Runnable() {
+				public void run() {
+					awaitLoaded();
+					if (!progress.isCancelled()) {
+						stageTime("total", start);
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Without its nodes or roads the map can not be used, so the
+			// failure is passed on to whoever is loading it
+			if (!progress.isCancelled()) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Blocks until every load stage, including those running in the
+	 * background, has finished
+	 */
+	public void awaitLoaded() {
+		try {
+			if (polygonsLoading != null) {
+				polygonsLoading.get();
+			}
+			if (namesLoading != null) {
+				namesLoading.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (!progress.isCancelled()) {
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether every load stage, including those running in the
+	 * background, has finished
+	 *
+	 * @return True if the map is fully loaded
+	 */
+	public boolean isLoaded() {
+		return (polygonsLoading == null || polygonsLoading.isDone())
+				&& (namesLoading == null || namesLoading.isDone());
+	}
+
+	/**
+	 * Returns whether the road name index can be searched yet
+	 *
+	 * @return True if getTen can find roads
+	 */
+	public boolean isSearchReady() {
+		return roadNames != null;
+	}
+
+	/**
+	 * Returns whether the polygons are still fading in after being loaded
+	 *
+	 * @return True if the map needs to be redrawn for the fade to finish
+	 */
+	public boolean isFading() {
+		return System.currentTimeMillis() - polygonsShown < FADE_TIME;
+	}
+
+	/**
+	 * Finds where the origin of the tiles is on the screen. Moving the map
+	 * moves the origin by whole pixels, so a frame drawn from tiles can be
+	 * shifted by the change in origin instead of being drawn again. The
+	 * caller's point is filled in so asking every frame allocates nothing
+	 *
+	 * @param origin
+	 *            Set to the origin in pixels
+	 * @return False, leaving the point alone, while the map is still loading
+	 *         and is drawn without tiles
+	 */
+	public boolean getTileOrigin(Point origin) {
+		if (!isLoaded() || isFading()) {
+			return false;
+		}
+		origin.setLocation(originOf(offsetX), originOf(offsetY));
+		return true;
+	}
+
+	/**
+	 * Returns where the origin of the tiles is on one axis of the screen
+	 *
+	 * @param offset
+	 *            The offset of the map on the axis
+	 * @return The origin in pixels
+	 */
+	private int originOf(double offset) {
+		return (int) Math.round(offset * zoomLevel);
+	}
+
+	/**
+	 * Returns a count that changes whenever what is drawn changes other than
+	 * by moving the map, such as zooming or selecting a road
+	 *
+	 * @return The number of changes so far
+	 */
+	public int getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Returns the cache of drawn tiles, whose size, hit rate and evictions
+	 * show how well drawing is being saved
+	 *
+	 * @return The tile cache
+	 */
+	public TileCache getTileCache() {
+		return tiles;
+	}
+
+	/**
+	 * Returns the wall time of each load stage that has finished
+	 *
+	 * @return A map from stage name to milliseconds taken
+	 */
+	public java.util.Map<String, Long> getStageTimes() {
+		synchronized (stageTimes) {
+			return new LinkedHashMap<String, Long>(stageTimes);
+		}
+	}
+
+	/**
+	 * Records the wall time of a finished load stage
+	 *
+	 * @param stage
+	 *            The name of the stage
+	 * @param start
+	 *            The time the stage started, in nanoseconds
+	 */
+	private void stageTime(String stage, long start) {
+		stageTimes.put(stage, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Asks the window displaying the map to redraw it
+	 */
+	private void repaint() {
+		if (map != null) {
+			map.repaint();
+		}
+	}
+
+	/**
+	 * Loads the map from a compiled snapshot if the directory contains one
+	 * that matches the data files
+	 *
+	 * @return True if the snapshot was loaded, false if the data files need
+	 *         to be read
+	 */
+	private boolean initSnapshot() {
+		if (!MapSnapshot.isCurrent(directory)) {
+			return false;
+		}
+		File file = new File(directory + MapSnapshot.FILE_NAME);
+		progress.addFile(file.getName(), file.length());
+		try {
+			MapSnapshot snapshot = MapSnapshot.read(directory, nodes, roads,
+					names, polygons, segmentPoints);
+			polygonsExist = snapshot.hasPolygons();
+			graph = snapshot.getGraph();
+			roadNames = snapshot.getRoadNames();
+			segmentPoints.trim();
+			polygons.prepare();
+			progress.finish(file.getName());
+		} catch (Exception e) {
+			e.printStackTrace();
+			nodes = new NodeArray();
+			roads = new RoadArray();
+			names = new StringDictionary();
+			segmentPoints = new CoordinateBuffer();
+			polygons = new PolygonStore();
+			polygonsExist = true;
+			graph = null;
+			roadNames = null;
+			return false;
+		}
+		setBounds();
+		buildIndices();
+		return true;
+	}
+
+	/**
+	 * Writes a snapshot of the loaded map into the data directory so that
+	 * later loads of the directory can skip reading the data files
+	 *
+	 * @throws IOException
+	 *             If the snapshot can not be written
+	 */
+	public void compile() throws IOException {
+		awaitLoaded();
+		MapSnapshot.write(directory, nodes, roads, polygons, polygonsExist,
+				graph, roadNames);
 	}
 
 	/**
 	 * Reads all data from files and creates Node objects
+	 *
+	 * @throws IllegalStateException
+	 *             If the node file is missing or can not be read
 	 */
 	public void initNodes() {
-		double minX = Double.MAX_VALUE;
-		double maxX = Double.MIN_VALUE;
-		double minY = Double.MAX_VALUE;
-		double maxY = Double.MIN_VALUE;
+		File file = new File(directory + "nodeID-lat-lon.tab");
+		if (!file.exists()) {
+			throw new IllegalStateException("Could not find " + file.getName());
+		}
 		try {
-			File file = new File(directory + "nodeID-lat-lon.tab");
-			if (file.exists()) {
+			if (mappedLoading) {
+				for (double[] n : TabFile.parse(file, false,
+						new TabFile.LineParser<double[]>() {
+							public double[] parse(TabLine line) {
+								int ID = line.nextInt();
+								double y = latToY(line.nextDouble());
+								double x = lonToX(line.nextDouble());
+								return new double[] { ID, x, y };
+							}
+						}, progress)) {
+					nodes.add((int) n[0], n[1], n[2]);
+				}
+			} else {
+				progress.addFile(file.getName(), file.length());
 				Scanner scan = new Scanner(file);
 				while (scan.hasNextLine()) {
 					String line = scan.nextLine();
@@ -77,101 +479,198 @@ public class Map {
 					int ID = Integer.parseInt(columns[0]);
 					double y = latToY(Double.parseDouble(columns[1]));
 					double x = lonToX(Double.parseDouble(columns[2]));
-					if (x < minX) {
-						minX = x;
-					}
-					if (x > maxX) {
-						maxX = x;
-					}
-					if (y < minY) {
-						minY = y;
-					}
-					if (y > maxY) {
-						maxY = y;
-					}
-					nodes.add(new Node(ID, x, y));
+					nodes.add(ID, x, y);
 				}
-				nodes.sort();
 				scan.close();
-				diffX = maxX - minX;
-				diffY = maxY - minY;
-				this.minX = minX;
-				this.minY = minY;
-				offsetX = (0.0 - minX);
-				offsetY = (0.0 - minY);
-				zoomLevel = 800 / diffX;
-			} else {
-				Mapper.textArea.setText("File Read Error\n");
+				progress.finish(file.getName());
 			}
+			nodes.sort();
+			nodes.trim();
+			setBounds();
 		} catch (Exception e) {
-			e.printStackTrace();
+			failStage(file, e);
 		}
 	}
 
+	/**
+	 * Passes on the failure of a load stage to read its data file, unless
+	 * the load has been cancelled
+	 *
+	 * @param file
+	 *            The data file being read
+	 * @param e
+	 *            The reason the file could not be read
+	 * @throws IllegalStateException
+	 *             Holding the reason, if the load was not cancelled
+	 */
+	private void failStage(File file, Exception e) {
+		if (!progress.isCancelled()) {
+			throw new IllegalStateException("Could not read " + file.getName()
+					+ ": " + e, e);
+		}
+	}
+
+	/**
+	 * Sets the extent of the map and the initial view from the loaded nodes
+	 */
+	private void setBounds() {
+		double minX = Double.MAX_VALUE;
+		double maxX = Double.MIN_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxY = Double.MIN_VALUE;
+		for (int i = 0; i < nodes.size(); i++) {
+			double x = nodes.getX(i);
+			double y = nodes.getY(i);
+			if (x < minX) {
+				minX = x;
+			}
+			if (x > maxX) {
+				maxX = x;
+			}
+			if (y < minY) {
+				minY = y;
+			}
+			if (y > maxY) {
+				maxY = y;
+			}
+		}
+		diffX = maxX - minX;
+		diffY = maxY - minY;
+		this.minX = minX;
+		this.minY = minY;
+		offsetX = (0.0 - minX);
+		offsetY = (0.0 - minY);
+		zoomLevel = 800 / diffX;
+	}
+
 	/**
 	 * Reads all data from files and creates Road objects
+	 *
+	 * @throws IllegalStateException
+	 *             If the road file can not be read
 	 */
 	public void initRoads() {
+		File file = new File(directory + "roadID-roadInfo.tab");
 		try {
-			File file = new File(directory + "roadID-roadInfo.tab");
 			if (file.exists()) {
-				Scanner scan = new Scanner(file);
-				scan.nextLine();
-				while (scan.hasNextLine()) {
-					String line = scan.nextLine();
-					String[] columns = line.split("\t");
-					roads.add(new Road(toInt(columns[0]), toInt(columns[1]),
-							columns[2], columns[3], toInt(columns[4]),
-							toInt(columns[5]), toInt(columns[6]),
-							toInt(columns[7]), toInt(columns[8]),
-							toInt(columns[9])));
+				if (mappedLoading) {
+					for (Road r : TabFile.parse(file, true,
+							new TabFile.LineParser<Road>() {
+								public Road parse(TabLine line) {
+									return new Road(names, line.nextInt(0),
+											line.nextInt(0), line.nextString(),
+											line.nextString(), line.nextInt(0),
+											line.nextInt(0), line.nextInt(0),
+											line.nextInt(0), line.nextInt(0),
+											line.nextInt(0));
+								}
+							}, progress)) {
+						roads.add(r);
+					}
+				} else {
+					progress.addFile(file.getName(), file.length());
+					Scanner scan = new Scanner(file);
+					scan.nextLine();
+					while (scan.hasNextLine()) {
+						String line = scan.nextLine();
+						String[] columns = line.split("\t");
+						roads.add(new Road(names, toInt(columns[0]),
+								toInt(columns[1]), columns[2], columns[3],
+								toInt(columns[4]), toInt(columns[5]),
+								toInt(columns[6]), toInt(columns[7]),
+								toInt(columns[8]), toInt(columns[9])));
+					}
+					scan.close();
+					progress.finish(file.getName());
 				}
 				roads.sort();
-				scan.close();
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			failStage(file, e);
 		}
+	}
 
-		for (Road r : roads) {
-			roadNames.add(r);
-		}
+	/**
+	 * Builds the index of road names used for searching
+	 */
+	public void initRoadNames() {
+		progress.checkCancelled();
+		roadNames = new RoadNameIndex(roads);
 	}
 
 	/**
 	 * Reads all data from files and creates Segment objects linking them to
 	 * roads
+	 *
+	 * @throws IllegalStateException
+	 *             If the segment file can not be read
 	 */
 	public void initSegments() {
+		File file = new File(directory
+				+ "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
 		try {
-			File file = new File(directory
-					+ "roadSeg-roadID-length-nodeID-nodeID-coords.tab");
 			if (file.exists()) {
-				Scanner scan = new Scanner(file);
-				scan.nextLine();
-				while (scan.hasNextLine()) {
-					String line = scan.nextLine();
-					String[] columns = line.split("\t");
-					Road road = roads.get(Integer.parseInt(columns[0]));
-					if (road != null) {
-						Segment s = new Segment(Double.parseDouble(columns[1]),
-								Integer.parseInt(columns[2]),
-								Integer.parseInt(columns[3]), road.isOneWay(), road.getSpeed());
-						for (int i = 4; i < columns.length; i += 2) {
-							double x = lonToX(Double
-									.parseDouble(columns[i + 1]));
-							double y = latToY(Double.parseDouble(columns[i]));
-							s.addPoint(x, y);
+				if (mappedLoading) {
+					for (Segment s : TabFile.parse(file, true,
+							new TabFile.LineParser<Segment>() {
+								public Segment parse(TabLine line) {
+									int roadID = line.nextInt();
+									Road road = roads.get(roadID);
+									if (road == null) {
+										System.err.println(roadID
+												+ " not present");
+										return null;
+									}
+									Segment s = new Segment(roadID, line
+											.nextDouble(), line.nextInt(), line
+											.nextInt(), road.isOneWay(), road
+											.getSpeed());
+									while (line.hasNext()) {
+										double y = latToY(line.nextDouble());
+										double x = lonToX(line.nextDouble());
+										s.addPoint(x, y);
+									}
+									return s;
+								}
+							}, progress)) {
+						s.pack(segmentPoints);
+						roads.get(s.getRoadID()).addSegment(s);
+					}
+				} else {
+					progress.addFile(file.getName(), file.length());
+					Scanner scan = new Scanner(file);
+					scan.nextLine();
+					while (scan.hasNextLine()) {
+						String line = scan.nextLine();
+						String[] columns = line.split("\t");
+						int roadID = Integer.parseInt(columns[0]);
+						Road road = roads.get(roadID);
+						if (road != null) {
+							Segment s = new Segment(roadID,
+									Double.parseDouble(columns[1]),
+									Integer.parseInt(columns[2]),
+									Integer.parseInt(columns[3]),
+									road.isOneWay(), road.getSpeed());
+							for (int i = 4; i < columns.length; i += 2) {
+								double x = lonToX(Double
+										.parseDouble(columns[i + 1]));
+								double y = latToY(Double
+										.parseDouble(columns[i]));
+								s.addPoint(x, y);
+							}
+							s.pack(segmentPoints);
+							road.addSegment(s);
+						} else {
+							System.err.println(columns[0] + " not present");
 						}
-						road.addSegment(s);
-					} else {
-						System.err.println(columns[0] + " not present");
 					}
+					scan.close();
+					progress.finish(file.getName());
 				}
-				scan.close();
+				segmentPoints.trim();
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			failStage(file, e);
 		}
 	}
 
@@ -183,22 +682,45 @@ public class Map {
 		try {
 			File file = new File(directory + "polygon-shapes.mp");
 			if (file.exists()) {
-				Scanner scan = new Scanner(file);
-				while (scan.hasNextLine()) {
-					List<String> details = new ArrayList<String>();
-					details.add(scan.nextLine());
-					while (!details.get(details.size() - 1).equals("[END]")
-							&& scan.hasNextLine()) {
+				PolygonStore loaded = new PolygonStore();
+				progress.addFile(file.getName(), file.length());
+				if (mappedLoading) {
+					MpReader reader = new MpReader(TabFile.map(file));
+					int read = 0;
+					while (reader.next()) {
+						Polygon.read(reader, loaded);
+						if (loaded.size() % 256 == 0) {
+							progress.checkCancelled();
+							progress.advance(file.getName(),
+									reader.getPosition() - read, 256);
+							read = reader.getPosition();
+						}
+					}
+				} else {
+					Scanner scan = new Scanner(file);
+					while (scan.hasNextLine()) {
+						List<String> details = new ArrayList<String>();
 						details.add(scan.nextLine());
+						while (!details.get(details.size() - 1).equals(
+								"[END]")
+								&& scan.hasNextLine()) {
+							details.add(scan.nextLine());
+						}
+						Polygon.read(details, loaded);
 					}
-					polygons.add(new Polygon(details));
+					scan.close();
 				}
-				scan.close();
+				loaded.prepare();
+				progress.finish(file.getName());
+				polygonsShown = System.currentTimeMillis();
+				polygons = loaded;
 			} else {
 				this.polygonsExist = false;
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (!progress.isCancelled()) {
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -209,54 +731,438 @@ public class Map {
 		for (Road r : roads) {
 			r.connect(nodes);
 		}
+		graph = new RoadGraph(nodes, roads);
+		buildIndices();
 	}
 
 	/**
-	 * Draws all the map components to the graphics object
+	 * Builds the spatial indices of the nodes and segments, used to find what
+	 * is under the mouse and what is in view, and the levels of detail the
+	 * segments are drawn at
+	 */
+	private void buildIndices() {
+		nodeTree = new KdTree(nodes);
+		int count = 0;
+		for (Road r : roads) {
+			count += r.getSegments().size();
+		}
+		Segment[] segments = new Segment[count];
+		double[] left = new double[count];
+		double[] top = new double[count];
+		double[] right = new double[count];
+		double[] bottom = new double[count];
+		count = 0;
+		for (Road r : roads) {
+			for (Segment s : r.getSegments()) {
+				s.simplify();
+				segments[count] = s;
+				left[count] = top[count] = Double.POSITIVE_INFINITY;
+				right[count] = bottom[count] = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < s.getPointCount(); i++) {
+					left[count] = Math.min(left[count], s.getPointX(i));
+					top[count] = Math.min(top[count], s.getPointY(i));
+					right[count] = Math.max(right[count], s.getPointX(i));
+					bottom[count] = Math.max(bottom[count], s.getPointY(i));
+				}
+				count++;
+			}
+		}
+		drawnSegments = segments;
+		segmentTree = new PackedRTree(left, top, right, bottom, count);
+	}
+
+	/**
+	 * Draws the map components inside the graphics object's clip, which must
+	 * be set. The device of an image's graphics is as large as an int allows,
+	 * so there is no sensible area to fall back to. Once the map has loaded the
+	 * polygons, roads and intersections are copied from tiles drawn earlier,
+	 * with only the tiles not yet in the cache being drawn. What is selected
+	 * and the markers that follow the mouse are drawn over the top each time,
+	 * so the tiles stay the same whatever is selected
 	 *
 	 * @param g
 	 *            The graphics object to be drawn to
+	 * @throws IllegalArgumentException
+	 *             If the graphics object has no clip
 	 */
 	public void draw(Graphics2D g) {
-		g.setColor(Color.white);
-		g.fillRect((int) ((minX + offsetX) * zoomLevel),
-				(int) ((minY + offsetY) * zoomLevel),
-				(int) (diffX * zoomLevel), (int) (diffY * zoomLevel));
-		if (polygonsExist) {
-			for (Polygon p : polygons) {
-				p.draw(g, offsetX, offsetY, zoomLevel);
+		// The clip's bounds are left alone when there is no clip
+		clip.setBounds(0, 0, -1, -1);
+		Rectangle view = g.getClipBounds(clip);
+		if (view.width < 0) {
+			throw new IllegalArgumentException(
+					"The area of the map to draw must be set as the clip");
+		}
+		if (isLoaded() && !isFading()) {
+			int originX = originOf(offsetX);
+			int originY = originOf(offsetY);
+			drawTiles(g, view, originX, originY);
+
+			// The overlay is drawn from the same origin so it lines up with
+			// the roads and intersections of the tiles
+			g.translate(originX, originY);
+			drawOverlay(g, 0, 0);
+			g.translate(-originX, -originY);
+		} else {
+			drawLayers(g, view, offsetX, offsetY, zoomLevel);
+			drawOverlay(g, offsetX, offsetY);
+		}
+		if (detailsChanged) {
+			detailsChanged = false;
+			showDetails();
+		}
+	}
+
+	/**
+	 * Writes the details of the selected road, intersections and route to
+	 * the text panel
+	 */
+	private void showDetails() {
+		StringBuilder details = new StringBuilder();
+		if (selectedRoad != null) {
+			details.append("Road Details:\n")
+					.append(selectedRoad.getDetails()).append("\n\n");
+		}
+		if (selectedSourceNode != null) {
+			details.append("Source Intersection Details:\n")
+					.append(selectedSourceNode.getDetails()).append("\n\n");
+		}
+		if (selectedDestNode != null) {
+			details.append("Destination Intersection Details:\n")
+					.append(selectedDestNode.getDetails()).append("\n\n");
+		}
+		if(!markedPath.isEmpty()){
+			details.append("Route Details:");
+			roadsAndDistance(markedPath, details);
+		}
+		Mapper.textArea.setText(details.toString());
+	}
+
+	/**
+	 * Copies the tiles covering the view onto the graphics object, drawing
+	 * any that are not in the cache. Tiles are drawn with the top left of the
+	 * map's coordinates at the origin, so every tile at a zoom level lines up
+	 * with the others however the map is moved
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param view
+	 *            The area being drawn, in pixels
+	 * @param originX
+	 *            Where the origin of the tiles is on the screen on the x-axis
+	 * @param originY
+	 *            Where the origin of the tiles is on the screen on the y-axis
+	 */
+	private void drawTiles(Graphics2D g, Rectangle view, int originX,
+			int originY) {
+		int firstColumn = tileOf(view.x - originX);
+		int firstRow = tileOf(view.y - originY);
+		int columns = tileOf(view.x + view.width - 1 - originX) - firstColumn
+				+ 1;
+		int rows = tileOf(view.y + view.height - 1 - originY) - firstRow + 1;
+
+		// Tiles not in the cache are drawn on every core at once
+		int count = columns * rows;
+		if (count > shownTiles.length) {
+			shownTiles = new BufferedImage[count];
+			missingTiles = new int[count];
+		}
+		BufferedImage[] shown = shownTiles;
+		int[] missing = missingTiles;
+		int missingCount = 0;
+		for (int i = 0; i < count; i++) {
+			shown[i] = tiles.get(zoomLevel, firstColumn + i % columns,
+					firstRow + i / columns);
+			if (shown[i] == null) {
+				missing[missingCount++] = i;
 			}
 		}
-		for (Road r : roads) {
-			r.draw(g, offsetX, offsetY, zoomLevel);
+		if (missingCount > 0) {
+			List<TileTask> tasks = new ArrayList<TileTask>(missingCount);
+			for (int i = 0; i < missingCount; i++) {
+				int tile = missing[i];
+				tasks.add(new TileTask(shown, tile, firstColumn + tile
+						% columns, firstRow + tile / columns, zoomLevel));
+			}
+			renderTiles(tasks);
+		}
+		for (int i = 0; i < missingCount; i++) {
+			int tile = missing[i];
+			tiles.put(zoomLevel, firstColumn + tile % columns, firstRow + tile
+					/ columns, shown[tile]);
+		}
+		for (int i = 0; i < count; i++) {
+			g.drawImage(shown[i], originX + (firstColumn + i % columns)
+					* TILE_SIZE, originY + (firstRow + i / columns)
+					* TILE_SIZE, null);
+
+			// Tiles the cache has thrown away are not kept alive here
+			shown[i] = null;
 		}
+	}
 
-		for (Node n : nodes) {
-			n.draw(g, offsetX, offsetY, zoomLevel);
+	/**
+	 * Draws the tiles on every core, or on the calling thread if the wait is
+	 * interrupted. Each task only stores its own tile, so drawing one again
+	 * gives the same result
+	 *
+	 * @param tasks
+	 *            The tasks drawing the missing tiles
+	 */
+	private static void renderTiles(List<TileTask> tasks) {
+		try {
+			for (Future<Void> result : RENDERERS.invokeAll(tasks)) {
+				result.get();
+			}
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
 		}
-		for(Node n : articulations){
-			n.drawArticulation(g, offsetX, offsetY, zoomLevel);
+		for (TileTask task : tasks) {
+			task.call();
 		}
-		Mapper.textArea.setText("");
+	}
+
+	/**
+	 * Draws one of the tiles missing from the view
+	 *
+	 * @author Oliver Greenaway
+	 *
+	 */
+	private class TileTask implements Callable<Void> {
+
+		private BufferedImage[] shown;
+		private int tile;
+		private int column, row;
+		private double zoom;
+
+		/**
+		 * Constructs a task drawing a missing tile
+		 *
+		 * @param shown
+		 *            The tiles covering the view, row by row, where the drawn
+		 *            tile is stored
+		 * @param tile
+		 *            The position in shown of the tile to be drawn
+		 * @param column
+		 *            The column of the tile
+		 * @param row
+		 *            The row of the tile
+		 * @param zoom
+		 *            The zoom level to draw at
+		 */
+		private TileTask(BufferedImage[] shown, int tile, int column, int row,
+				double zoom) {
+			this.shown = shown;
+			this.tile = tile;
+			this.column = column;
+			this.row = row;
+			this.zoom = zoom;
+		}
+
+		@Override
+		public Void call() {
+			shown[tile] = drawTile(column, row, zoom);
+			return null;
+		}
+	}
+
+	/**
+	 * Draws the polygons, roads and intersections of one tile
+	 *
+	 * @param column
+	 *            The column of the tile
+	 * @param row
+	 *            The row of the tile
+	 * @param zoom
+	 *            The zoom level to draw at
+	 * @return The drawn tile
+	 */
+	private BufferedImage drawTile(int column, int row, double zoom) {
+		BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = tile.createGraphics();
+		g.setColor(BACKGROUND);
+		g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+		g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+		drawLayers(g, new Rectangle(column * TILE_SIZE, row * TILE_SIZE,
+				TILE_SIZE, TILE_SIZE), 0, 0, zoom);
+		g.dispose();
+		return tile;
+	}
+
+	/**
+	 * Returns the tile holding a pixel, counting from the tiles' origin
+	 *
+	 * @param pixel
+	 *            The position of the pixel on one axis
+	 * @return The column or row of the tile
+	 */
+	private static int tileOf(int pixel) {
+		return (int) Math.floor((double) pixel / TILE_SIZE);
+	}
+
+	/**
+	 * Draws the selected road, the route, the selected intersections, the
+	 * articulation points and the intersection under the mouse
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param offsetX
+	 *            The offset of the map on the x-axis
+	 * @param offsetY
+	 *            The offset of the map on the y-axis
+	 */
+	private void drawOverlay(Graphics2D g, double offsetX, double offsetY) {
+		g.setColor(Color.red);
+		Path2D selectedLines = LINES.get();
+		selectedLines.reset();
 		if (selectedRoad != null) {
-			Mapper.textArea.setText("Road Details:\n"
-					+ selectedRoad.getDetails()+"\n\n");
+			for (Segment s : selectedRoad.getSegments()) {
+				s.appendLines(selectedLines, offsetX, offsetY, zoomLevel);
+			}
+		}
+		for (int i = 0; i < markedPath.size(); i++) {
+			markedPath.get(i).appendLines(selectedLines, offsetX, offsetY,
+					zoomLevel);
 		}
+		g.draw(selectedLines);
 		if (selectedSourceNode != null) {
-			Mapper.textArea.append("Source Intersection Details:\n"
-					+ selectedSourceNode.getDetails()+"\n\n");
+			selectedSourceNode.draw(g, offsetX, offsetY, zoomLevel);
 		}
 		if (selectedDestNode != null) {
-			Mapper.textArea.append("Destination Intersection Details:\n"
-					+ selectedDestNode.getDetails()+"\n\n");
+			selectedDestNode.draw(g, offsetX, offsetY, zoomLevel);
 		}
-		if(!markedPath.isEmpty()){
-			Mapper.textArea.append("Route Details:"+roadsAndDistance(markedPath));
+		for (int i = 0; i < articulations.size(); i++) {
+			articulations.get(i).drawArticulation(g, offsetX, offsetY,
+					zoomLevel);
+		}
+		if (hoveredNode >= 0) {
+			nodes.getIndex(hoveredNode).drawHover(g, offsetX, offsetY,
+					zoomLevel);
+		}
+	}
+
+	/**
+	 * Draws the polygons, roads and intersections inside an area, as they
+	 * look when nothing is selected. Only those in view are drawn, in the
+	 * same order as the whole map would be
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param view
+	 *            The area being drawn, in pixels
+	 * @param offsetX
+	 *            The offset of the map on the x-axis
+	 * @param offsetY
+	 *            The offset of the map on the y-axis
+	 * @param zoom
+	 *            The zoom level to draw at
+	 */
+	private void drawLayers(Graphics2D g, Rectangle view, double offsetX,
+			double offsetY, double zoom) {
+		double viewMinX = (view.x - VIEW_MARGIN) / zoom - offsetX;
+		double viewMinY = (view.y - VIEW_MARGIN) / zoom - offsetY;
+		double viewMaxX = (view.x + view.width + VIEW_MARGIN) / zoom
+				- offsetX;
+		double viewMaxY = (view.y + view.height + VIEW_MARGIN) / zoom
+				- offsetY;
+
+		g.setColor(Color.white);
+		g.fillRect((int) ((minX + offsetX) * zoom),
+				(int) ((minY + offsetY) * zoom),
+				(int) (diffX * zoom), (int) (diffY * zoom));
+		if (polygonsExist) {
+			long shown = System.currentTimeMillis() - polygonsShown;
+			Composite composite = g.getComposite();
+			if (shown < FADE_TIME) {
+				g.setComposite(AlphaComposite.getInstance(
+						AlphaComposite.SRC_OVER, (float) shown / FADE_TIME));
+			}
+			PolygonStore polygons = this.polygons;
+			int level = lowestLevel(zoom);
+			for (int i : polygons.search(viewMinX, viewMinY, viewMaxX,
+					viewMaxY)) {
+				if (polygons.getLevel(i) >= level) {
+					polygons.draw(g, i, offsetX, offsetY, zoom);
+				}
+			}
+			g.setComposite(composite);
+		}
+		if (segmentTree != null) {
+			// Every road is the same colour, so all their lines are drawn
+			// in one call
+			g.setColor(Color.blue);
+			Path2D roadLines = LINES.get();
+			roadLines.reset();
+			for (int i : segmentTree.search(viewMinX, viewMinY, viewMaxX,
+					viewMaxY)) {
+				drawnSegments[i].appendLines(roadLines, offsetX, offsetY,
+						zoom);
+			}
+			g.draw(roadLines);
+
+			// Zoomed out many nodes land on the same pixel, and drawing a
+			// node again where one already is changes nothing. Areas too
+			// large to keep a bit per pixel for draw every node
+			int width = view.width + 2 * VIEW_MARGIN;
+			int height = view.height + 2 * VIEW_MARGIN;
+			long pixels = (long) width * height;
+			long[] drawn = pixels > MAX_DEDUPE_PIXELS ? null
+					: new long[(int) ((pixels + 63) / 64)];
+			for (int i : nodeTree.search(viewMinX, viewMinY, viewMaxX,
+					viewMaxY)) {
+				int x = (int) ((nodes.getX(i) + offsetX) * zoom) - view.x
+						+ VIEW_MARGIN;
+				int y = (int) ((nodes.getY(i) + offsetY) * zoom) - view.y
+						+ VIEW_MARGIN;
+				if (drawn != null && x >= 0 && x < width && y >= 0
+						&& y < height) {
+					int pixel = y * width + x;
+					if ((drawn[pixel >>> 6] & 1L << pixel) != 0) {
+						continue;
+					}
+					drawn[pixel >>> 6] |= 1L << pixel;
+				}
+				Node.draw(g, nodes, i, offsetX, offsetY, zoom, false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the lowest end level of polygon drawn at the given zoom, as
+	 * polygons of a low end level are too small to see when zoomed out
+	 *
+	 * @param zoom
+	 *            The zoom level of the map
+	 * @return The lowest end level drawn, 0 if the zoom is not positive
+	 */
+	private static int lowestLevel(double zoom) {
+		// An empty node file leaves the zoom negative, which the loop below
+		// would never scale past the detail zoom
+		if (zoom <= 0) {
+			return 0;
 		}
+		int level = 0;
+		for (double z = zoom; z < DETAIL_ZOOM; z *= 4) {
+			level++;
+		}
+		return level;
 	}
 
-	private String roadsAndDistance(List<Segment> segments) {
-		String details = "";
+	/**
+	 * Appends the length of each road along a route, in the order they are
+	 * driven
+	 *
+	 * @param segments
+	 *            The segments of the route, from the destination back
+	 * @param details
+	 *            The text the roads are appended to
+	 */
+	private void roadsAndDistance(List<Segment> segments,
+			StringBuilder details) {
 		String curName = "";
 		double curLength = 0;
 		for(int i=segments.size()-1; i>=0; i--){
@@ -267,14 +1173,15 @@ public class Map {
 				curLength += length;
 			}else{
 				curLength = ((double)((int)(curLength*100)))/100;
-				details += "\n"+curName+": "+curLength+"km";
+				details.append('\n').append(curName).append(": ")
+						.append(curLength).append("km");
 				curName = cur.getName();
 				curLength = length;
 			}
 		}
 		curLength = ((double)((int)(curLength*100)))/100;
-		details += "\n"+curName+": "+curLength+"km";
-		return details;
+		details.append('\n').append(curName).append(": ").append(curLength)
+				.append("km");
 	}
 
 	/**
@@ -301,10 +1208,11 @@ public class Map {
 		if (zoomLevel < 1) {
 			zoomLevel = 1;
 		}
+		changes++;
 	}
 
 	/**
-	 * Checks all nodes to see which is closest to the click and select the node
+	 * Finds the node closest to the click and select the node
 	 *
 	 * @param x
 	 *            The mouseX coordinate
@@ -315,25 +1223,17 @@ public class Map {
 		if (selectedSourceNode != null) {
 			selectedSourceNode.setSelect(false);
 		}
-		Node closest = null;
-		double closestDistance = Double.MAX_VALUE;
-		int count = 0;
-		for (Node n : nodes) {
-			double dist = n.getDist(x, y, offsetX, offsetY, zoomLevel);
-			if (dist < closestDistance) {
-				closestDistance = dist;
-				closest = n;
-			}
-		}
-		selectedSourceNode = closest;
+		selectedSourceNode = closestNode(x, y, Double.POSITIVE_INFINITY);
 		if (selectedSourceNode != null) {
 			selectedSourceNode.setSelect(true);
 		}
+		changes++;
+		detailsChanged = true;
 		updatePath();
 	}
 
 	/**
-	 * Checks all nodes to see which is closest to the click and select the node
+	 * Finds the node closest to the click and select the node
 	 *
 	 * @param x
 	 *            The mouseX coordinate
@@ -344,23 +1244,243 @@ public class Map {
 		if (selectedDestNode != null) {
 			selectedDestNode.setSelect(false);
 		}
-		Node closest = null;
-		double closestDistance = Double.MAX_VALUE;
-		int count = 0;
-		for (Node n : nodes) {
-			double dist = n.getDist(x, y, offsetX, offsetY, zoomLevel);
-			if (dist < closestDistance) {
-				closestDistance = dist;
-				closest = n;
-			}
-		}
-		selectedDestNode = closest;
+		selectedDestNode = closestNode(x, y, Double.POSITIVE_INFINITY);
 		if (selectedDestNode != null) {
 			selectedDestNode.setSelect(true);
 		}
+		changes++;
+		detailsChanged = true;
 		updatePath();
 	}
 
+	/**
+	 * Highlights the node under the mouse, if there is one close enough
+	 *
+	 * @param x
+	 *            The mouseX coordinate
+	 * @param y
+	 *            The mouseY coordinate
+	 * @return True if a different node, or no node, is now highlighted and
+	 *         the map needs redrawing
+	 */
+	public boolean hover(int x, int y) {
+		Node closest = closestNode(x, y, HOVER_RADIUS);
+		int hovered = closest == null ? -1 : closest.getIndex();
+		if (hovered == hoveredNode) {
+			return false;
+		}
+		hoveredNode = hovered;
+		changes++;
+		return true;
+	}
+
+	/**
+	 * Selects the road closest to the click, if one is within a few pixels
+	 *
+	 * @param x
+	 *            The mouseX coordinate
+	 * @param y
+	 *            The mouseY coordinate
+	 * @return The selected road, null if no road was close enough
+	 */
+	public Road clickedRoad(int x, int y) {
+		Road closest = null;
+		PackedRTree tree = segmentTree;
+		if (tree != null) {
+			double mapX = x / zoomLevel - offsetX;
+			double mapY = y / zoomLevel - offsetY;
+			double tolerance = Segment.HIT_TOLERANCE / zoomLevel;
+			double closestDistance = tolerance;
+			for (int i : tree.search(mapX - tolerance, mapY - tolerance, mapX
+					+ tolerance, mapY + tolerance)) {
+				double distance = drawnSegments[i].distance(mapX, mapY);
+				if (distance <= closestDistance
+						&& (closest == null || distance < closestDistance)) {
+					closest = drawnSegments[i].getRoad();
+					closestDistance = distance;
+				}
+			}
+		}
+		setSelectedRoad(closest);
+		return closest;
+	}
+
+	/**
+	 * Finds the node closest to a position on the screen
+	 *
+	 * @param x
+	 *            The mouseX coordinate
+	 * @param y
+	 *            The mouseY coordinate
+	 * @param radius
+	 *            The furthest in pixels the node can be from the position
+	 * @return The closest node, null if there is none within the radius
+	 */
+	private Node closestNode(int x, int y, double radius) {
+		KdTree tree = nodeTree;
+		if (tree == null) {
+			return null;
+		}
+		int index = tree.nearest(x / zoomLevel - offsetX, y / zoomLevel
+				- offsetY, radius / zoomLevel);
+		return index < 0 ? null : nodes.getIndex(index);
+	}
+
+	/**
+	 * Finds every intersection within a distance of a position. Positions
+	 * are map coordinates, in kilometres like Node.getX and Node.getY
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param radius
+	 *            The furthest in kilometres a node can be from the position
+	 * @return The nodes in the order they were loaded, none if the map is
+	 *         still loading
+	 */
+	public List<Node> nodesWithin(double x, double y, double radius) {
+		KdTree tree = nodeTree;
+		return tree == null ? new ArrayList<Node>() : toNodes(tree.within(x,
+				y, radius));
+	}
+
+	/**
+	 * Finds every intersection inside an area of the map
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return The nodes in the order they were loaded, none if the map is
+	 *         still loading
+	 */
+	public List<Node> nodesIn(double minX, double minY, double maxX,
+			double maxY) {
+		KdTree tree = nodeTree;
+		return tree == null ? new ArrayList<Node>() : toNodes(tree.search(
+				minX, minY, maxX, maxY));
+	}
+
+	/**
+	 * Finds the intersections closest to a position
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param count
+	 *            The number of nodes wanted
+	 * @return The nodes, closest first, none if the map is still loading
+	 */
+	public List<Node> closestNodes(double x, double y, int count) {
+		KdTree tree = nodeTree;
+		return tree == null ? new ArrayList<Node>() : toNodes(tree.closest(x,
+				y, count));
+	}
+
+	/**
+	 * Finds every road segment that passes within a distance of a position
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param radius
+	 *            The furthest in kilometres a segment can be from the
+	 *            position
+	 * @return The segments in drawing order, none if the map is still loading
+	 */
+	public List<Segment> segmentsWithin(double x, double y, double radius) {
+		PackedRTree tree = segmentTree;
+		Segment[] segments = drawnSegments;
+		List<Segment> found = new ArrayList<Segment>();
+		if (tree != null) {
+			for (int i : tree.search(x - radius, y - radius, x + radius, y
+					+ radius)) {
+				if (segments[i].distance(x, y) <= radius) {
+					found.add(segments[i]);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds every road segment that passes through an area of the map
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return The segments in drawing order, none if the map is still loading
+	 */
+	public List<Segment> segmentsIn(double minX, double minY, double maxX,
+			double maxY) {
+		PackedRTree tree = segmentTree;
+		Segment[] segments = drawnSegments;
+		List<Segment> found = new ArrayList<Segment>();
+		if (tree != null) {
+			for (int i : tree.search(minX, minY, maxX, maxY)) {
+				if (segments[i].crosses(minX, minY, maxX, maxY)) {
+					found.add(segments[i]);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the road segments closest to a position
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param count
+	 *            The number of segments wanted
+	 * @return The segments, closest first, none if the map is still loading
+	 */
+	public List<Segment> closestSegments(double x, double y, int count) {
+		PackedRTree tree = segmentTree;
+		final Segment[] segments = drawnSegments;
+		List<Segment> found = new ArrayList<Segment>();
+		if (tree != null) {
+			for (int i : tree.closest(x, y, count, new PackedRTree.Measure() {
+				@Override
+				public double distance(int item, double x, double y) {
+					return segments[item].distance(x, y);
+				}
+			})) {
+				found.add(segments[i]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Creates views of the nodes at the given positions
+	 *
+	 * @param indices
+	 *            The positions of the nodes in the collection
+	 * @return The nodes, in the same order
+	 */
+	private List<Node> toNodes(int[] indices) {
+		List<Node> found = new ArrayList<Node>(indices.length);
+		for (int i : indices) {
+			found.add(nodes.getIndex(i));
+		}
+		return found;
+	}
+
 	/**
 	 * Using A* algorithm, the fastest path is found between two intersections
 	 * if two intersections are selected
@@ -371,57 +1491,24 @@ public class Map {
 				s.setSelect(false);
 			}
 			markedPath = new ArrayList<Segment>();
-			List<Node> visited = new ArrayList<Node>();
-			List<Object[]> fringe = new ArrayList<Object[]>(); // [Node,prevNode,pathLength,adjustedLength]
-			fringe.add(new Object[]{selectedSourceNode,null,0,(int)(selectedSourceNode.getPoint().distance(selectedDestNode.getPoint())),null});
-			while(fringe.size() > 0){
-				int indexToRemove = 0;
-				int minLength = Integer.MAX_VALUE;
-				for(int i=0; i<fringe.size(); i++){
-					if((Integer)(fringe.get(i)[3]) < minLength){
-						minLength = (Integer)(fringe.get(i)[3]);
-						indexToRemove = i;
-					}
-				}
-				Object[] working = fringe.remove(indexToRemove);
-				if(!visited.contains(working[0])){
-					visited.add((Node)working[0]);
-					if(working[0] == selectedDestNode){
-						Object[] temp = working;
-						while(temp[4] != null){
-							((Segment)temp[4]).setSelect(true);
-							markedPath.add((Segment)temp[4]);
-							temp = (Object[])temp[1];
-						}
-						return;
-					}else{
-						List<Segment> neighbours = ((Node)working[0]).getNeighbours();
-						for(Segment n : neighbours){
-							Node otherNode = n.getOppositeNode((Node)working[0], true);
-							if(!(otherNode == null || visited.contains(otherNode))){
-								int length = (Integer)working[2];
-								if(useSpeedHeristic){
-									length += n.getLength()/n.getSpeed();
-								}else{
-									length += n.getLength();
-								}
-								fringe.add(new Object[]{otherNode,working,length,(int)(otherNode.getPoint().distance(selectedDestNode.getPoint())),n});
-							}
-						}
-					}
-				}
+			for (int edge : graph.route(selectedSourceNode.getIndex(),
+					selectedDestNode.getIndex())) {
+				Segment s = graph.getSegment(edge);
+				s.setSelect(true);
+				markedPath.add(s);
 			}
-		} else {
-			return;
+			changes++;
+			detailsChanged = true;
 		}
 	}
 
 
 	public void findArticulations(){
+		changes++;
 		if(selectedSourceNode != null){
-			this.articulations = getArticulations(selectedSourceNode, 0, selectedSourceNode,true);
+			this.articulations = getArticulations(selectedSourceNode);
 		}else if(selectedDestNode != null){
-			this.articulations = getArticulations(selectedDestNode, 0, selectedDestNode,true);
+			this.articulations = getArticulations(selectedDestNode);
 		}else{
 			Mapper.textArea.setText("Must select a Intersection before finding choke points");
 		}
@@ -430,73 +1517,30 @@ public class Map {
 	/**
 	 * Works through the graph of nodes finding all articulation points
 	 * @param startNode The node to start from
-	 * @param depth The starting depth
-	 * @param root The root node
-	 * @return An arrayList of Nodes that are articulation points
-	 */
-	private Set<Node> getArticulations(Node startNode, int depth, Node root, boolean first){
-		if(first){
-			for(Node n : nodes){
-				n.setDepth(Integer.MAX_VALUE);
-			}
-		}
-		Set<Node> articulations = new HashSet<Node>();
-		Stack<Object[]> stack = new Stack<Object[]>();
-
-		stack.push(new Object[]{startNode,0,0,new Object[]{root, 0, 0, null, null}, null});
-
-		while(!stack.isEmpty()){
-			Object[] element = stack.peek();
-			Node curNode = (Node)element[0];
-			if(element[4] == null){
-				//first time
-				curNode.setDepth((Integer)element[1]);
-				element[2] = element[1];
-				element[4] = new ArrayList<Node>();
-				for(Segment s : curNode.getNeighbours()){
-					Node neighbour = s.getOppositeNode(curNode, false);
-					if(neighbour != (Node)((Object[])element[3])[0]){
-						((List<Node>)(element[4])).add(neighbour);
-					}
-				}
-			}else if(!((List<Node>)(element[4])).isEmpty()){
-				//children to process
-				Node child = ((List<Node>)element[4]).remove(0);
-				if(child.getDepth() < Integer.MAX_VALUE){
-					element[2] = Math.min(((Integer)element[2]),child.getDepth());
-				}else{
-					stack.push(new Object[]{child,curNode.getDepth()+1,0,element,null});
-				}
-			}else{
-				//last time
-				if(curNode != startNode){
-					if((Integer)element[2] >= (Integer)((Object[])element[3])[1]){
-						articulations.add((Node)((Object[])element[3])[0]);
-					}
-					((Object[])element[3])[2] = Math.min((Integer)((Object[])element[3])[2], (Integer)element[2]);
-				}
-				stack.pop();
-			}
-		}
-
-		for(Node n : nodes){
-			if(n.getDepth() == Integer.MAX_VALUE){
-				articulations.addAll(getArticulations(n, 0, n, false));
-			}
+	 * @return A list of Nodes that are articulation points
+	 */
+	private List<Node> getArticulations(Node startNode){
+		List<Node> articulations = new ArrayList<Node>();
+		for(int i : graph.getArticulations(startNode.getIndex())){
+			articulations.add(nodes.getIndex(i));
 		}
-
 		return articulations;
 	}
 
 	/**
-	 * Returns the 10 closest road names to the given string
+	 * Returns the 10 closest road names to the given string. Returns no roads
+	 * while the name index is still loading
 	 *
 	 * @param text
 	 *            the string to be searched for
 	 * @return A list of at most 10 roads
 	 */
 	public List<Road> getTen(String text) {
-		return roadNames.getTen(text);
+		RoadNameIndex names = roadNames;
+		if (names == null) {
+			return new ArrayList<Road>();
+		}
+		return names.getTen(text);
 	}
 
 	/**
@@ -513,6 +1557,8 @@ public class Map {
 		if (selectedRoad != null) {
 			selectedRoad.setSelect(true);
 		}
+		changes++;
+		detailsChanged = true;
 	}
 
 	/**
@@ -553,6 +1599,52 @@ public class Map {
 		}
 	}
 
+	/**
+	 * Returns the loaded nodes
+	 *
+	 * @return The sorted collection of nodes
+	 */
+	NodeArray getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the loaded roads
+	 *
+	 * @return The sorted collection of roads
+	 */
+	RoadArray getRoads() {
+		return roads;
+	}
+
+	/**
+	 * Centres a view of the given size on the middle of the map
+	 *
+	 * @param zoom
+	 *            The zoom level of the view
+	 * @param width
+	 *            The width of the view in pixels
+	 * @param height
+	 *            The height of the view in pixels
+	 */
+	void centre(double zoom, int width, int height) {
+		zoomLevel = zoom;
+		offsetX = width / 2.0 / zoom - (minX + diffX / 2);
+		offsetY = height / 2.0 / zoom - (minY + diffY / 2);
+		changes++;
+	}
+
+	/**
+	 * Selects how data files are read by newly constructed maps
+	 *
+	 * @param mapped
+	 *            True to memory map the files and parse them on all cores,
+	 *            false to read them line by line with a Scanner
+	 */
+	public static void setMappedLoading(boolean mapped) {
+		mappedLoading = mapped;
+	}
+
 	/**
 	 * Inverts the choice to use speed as a heristic
 	 */
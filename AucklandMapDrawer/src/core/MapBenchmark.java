@@ -0,0 +1,659 @@
+package core;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import util.FrameScheduler;
+import util.MpReader;
+import util.NodeArray;
+import util.RoadArray;
+import util.RoadNameIndex;
+import util.TabFile;
+
+/**
+ * Measures the maps in the given data directories, printing the figures that
+ * changes to loading, searching and drawing them were judged by. Where the
+ * earlier way of doing something is still in the tree, such as the Scanner
+ * loaders, binary searches and full scans, it is measured alongside. The
+ * timings vary with the machine, so only their proportions carry over
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class MapBenchmark {
+
+	// The size of the view that frames are drawn to
+	private static final int WIDTH = 800, HEIGHT = 700;
+
+	private Map map;
+	private String directory;
+
+	// Consumes results so the work producing them is not optimised away
+	private long sink;
+
+	/**
+	 * Constructs a benchmark of the map in the directory, loading it from the
+	 * data files rather than any snapshot
+	 *
+	 * @param directory
+	 *            The directory containing the data files
+	 */
+	private MapBenchmark(String directory) {
+		this.directory = directory;
+		map = load(true);
+	}
+
+	/**
+	 * Loads the map from the data files, ignoring any snapshot
+	 *
+	 * @param mapped
+	 *            True to use the memory mapped loaders, false for the Scanner
+	 *            loaders
+	 * @return The loaded map
+	 */
+	private Map load(boolean mapped) {
+		Map.setMappedLoading(mapped);
+		File snapshot = new File(directory + MapSnapshot.FILE_NAME);
+		File hidden = new File(directory + MapSnapshot.FILE_NAME + ".bench");
+		boolean moved = snapshot.exists() && snapshot.renameTo(hidden);
+		try {
+			Map loaded = new Map(directory, null);
+			loaded.awaitLoaded();
+			return loaded;
+		} finally {
+			if (moved) {
+				hidden.renameTo(snapshot);
+			}
+			Map.setMappedLoading(true);
+		}
+	}
+
+	/**
+	 * Loads the map with each loader, printing the time taken and the records
+	 * each stage read per second, from the fastest of five loads after one
+	 * warm up. The stages run at the same time, so each rate is of a stage
+	 * sharing the cores with the others
+	 */
+	private void loading() {
+		String[] stages = { "nodes", "roads", "segments" };
+		int segments = 0;
+		for (Road r : map.getRoads()) {
+			segments += r.getSegments().size();
+		}
+		int[] records = { map.getNodes().size(), map.getRoads().size(),
+				segments };
+		System.out.println("Loading, best of 5 runs, records per second");
+		for (boolean mapped : new boolean[] { false, true }) {
+			load(mapped);
+			long best = Long.MAX_VALUE;
+			long[] fastest = new long[stages.length];
+			Arrays.fill(fastest, Long.MAX_VALUE);
+			for (int run = 0; run < 5; run++) {
+				long start = System.nanoTime();
+				Map loaded = load(mapped);
+				best = Math.min(best, System.nanoTime() - start);
+				java.util.Map<String, Long> times = loaded.getStageTimes();
+				for (int i = 0; i < stages.length; i++) {
+					Long time = times.get(stages[i]);
+					if (time != null) {
+						fastest[i] = Math.min(fastest[i], time);
+					}
+				}
+			}
+			StringBuilder line = new StringBuilder(String.format(
+					"  %s %6.0f ms", mapped ? "mapped " : "scanner", best / 1e6));
+			for (int i = 0; i < stages.length; i++) {
+				// Stage times are whole milliseconds, so a stage taking under
+				// one counts as one
+				if (records[i] > 0 && fastest[i] != Long.MAX_VALUE) {
+					line.append(String.format(", %s %.2fM/s", stages[i],
+							records[i] / 1e3 / Math.max(fastest[i], 1)));
+				}
+			}
+			System.out.println(line);
+		}
+		if (MapSnapshot.isCurrent(directory)) {
+			new Map(directory, null);
+			long start = System.nanoTime();
+			new Map(directory, null);
+			System.out.println(String.format("  snapshot %6.0f ms",
+					(System.nanoTime() - start) / 1e6));
+		}
+	}
+
+	/**
+	 * Times looking up every node and road ID ten times in a random order,
+	 * through the collections' indices and through a binary search of the
+	 * sorted IDs, which is how they were found before
+	 */
+	private void lookups() {
+		System.out.println("ID lookups, best of 20 runs in ns per lookup");
+		NodeArray nodes = map.getNodes();
+		int[] nodeIDs = new int[nodes.size()];
+		for (int i = 0; i < nodeIDs.length; i++) {
+			nodeIDs[i] = nodes.getID(i);
+		}
+		RoadArray roads = map.getRoads();
+		int[] roadIDs = new int[roads.size()];
+		int count = 0;
+		for (Road r : roads) {
+			roadIDs[count++] = r.getID();
+		}
+
+		final int[] sortedNodes = sorted(nodeIDs);
+		final NodeArray nodeIndex = nodes;
+		lookup("nodes", shuffled(nodeIDs), new Lookup() {
+			@Override
+			public int find(int id) {
+				return nodeIndex.indexOf(id);
+			}
+		}, new Lookup() {
+			@Override
+			public int find(int id) {
+				return Arrays.binarySearch(sortedNodes, id);
+			}
+		});
+		final int[] sortedRoads = sorted(roadIDs);
+		final RoadArray roadIndex = roads;
+		lookup("roads", shuffled(roadIDs), new Lookup() {
+			@Override
+			public int find(int id) {
+				return roadIndex.get(id).getID();
+			}
+		}, new Lookup() {
+			@Override
+			public int find(int id) {
+				return Arrays.binarySearch(sortedRoads, id);
+			}
+		});
+	}
+
+	/**
+	 * A way of finding an ID
+	 *
+	 * @author Oliver Greenaway
+	 *
+	 */
+	private interface Lookup {
+
+		/**
+		 * Finds an ID
+		 *
+		 * @param id
+		 *            The ID to find
+		 * @return A number depending on where it was found
+		 */
+		int find(int id);
+	}
+
+	/**
+	 * Times two ways of finding every ID in turn
+	 *
+	 * @param name
+	 *            What the IDs belong to
+	 * @param ids
+	 *            The IDs to find
+	 * @param index
+	 *            Finds an ID through the collection's index
+	 * @param search
+	 *            Finds an ID by binary search
+	 */
+	private void lookup(String name, int[] ids, Lookup index, Lookup search) {
+		long indexed = Long.MAX_VALUE, searched = Long.MAX_VALUE;
+		for (int run = 0; run < 20; run++) {
+			long start = System.nanoTime();
+			for (int id : ids) {
+				sink += index.find(id);
+			}
+			indexed = Math.min(indexed, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int id : ids) {
+				sink += search.find(id);
+			}
+			searched = Math.min(searched, System.nanoTime() - start);
+		}
+		System.out.println(String.format(
+				"  %s, %d IDs: binary search %.1f ns, index %.1f ns", name,
+				ids.length / 10, (double) searched / ids.length,
+				(double) indexed / ids.length));
+	}
+
+	/**
+	 * Returns a sorted copy of the IDs
+	 *
+	 * @param ids
+	 *            The IDs
+	 * @return The sorted IDs
+	 */
+	private static int[] sorted(int[] ids) {
+		int[] copy = ids.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+
+	/**
+	 * Returns every ID ten times in a random order
+	 *
+	 * @param ids
+	 *            The IDs
+	 * @return The shuffled IDs
+	 */
+	private static int[] shuffled(int[] ids) {
+		int[] result = new int[ids.length * 10];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ids[i % ids.length];
+		}
+		Random random = new Random(1);
+		for (int i = result.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = result[i];
+			result[i] = result[j];
+			result[j] = swap;
+		}
+		return result;
+	}
+
+	/**
+	 * Times building the road name index and searching it for every prefix of
+	 * the road names and for random strings
+	 */
+	private void names() {
+		System.out.println("Road name index");
+		RoadArray roads = map.getRoads();
+		long build = Long.MAX_VALUE;
+		RoadNameIndex index = null;
+		for (int run = 0; run < 6; run++) {
+			long start = System.nanoTime();
+			index = new RoadNameIndex(roads);
+			if (run > 0) {
+				build = Math.min(build, System.nanoTime() - start);
+			}
+		}
+
+		List<String> queries = new ArrayList<String>();
+		for (Road r : roads) {
+			String name = r.getRoadName();
+			for (int length = 1; length <= name.length() && length <= 6; length++) {
+				queries.add(name.substring(0, length));
+			}
+		}
+		Random random = new Random(1);
+		for (int i = queries.size() / 10; i > 0; i--) {
+			char[] letters = new char[1 + random.nextInt(4)];
+			for (int j = 0; j < letters.length; j++) {
+				letters[j] = (char) ('a' + random.nextInt(26));
+			}
+			queries.add(new String(letters));
+		}
+		Collections.shuffle(queries, random);
+
+		for (String query : queries) {
+			sink += index.getTen(query).size();
+		}
+		long[] times = new long[queries.size()];
+		for (int i = 0; i < times.length; i++) {
+			long start = System.nanoTime();
+			sink += index.getTen(queries.get(i)).size();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format(
+				"  build %.1f ms, %d queries p50 %.1f us p99 %.1f us",
+				build / 1e6, times.length, times[times.length / 2] / 1e3,
+				times[times.length * 99 / 100] / 1e3));
+	}
+
+	/**
+	 * Times the radius and nearest queries over nodes and segments against a
+	 * scan of every node or segment, from random positions over the map
+	 */
+	private void queries() {
+		System.out.println("Queries, 2000 positions, R = 0.5 km, k = 10, "
+				+ "mean us per query");
+		final NodeArray nodes = map.getNodes();
+		List<Segment> segmentList = new ArrayList<Segment>();
+		for (Road r : map.getRoads()) {
+			segmentList.addAll(r.getSegments());
+		}
+		final Segment[] segments = segmentList.toArray(new Segment[0]);
+
+		double minX = Double.POSITIVE_INFINITY, minY = minX;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = maxX;
+		for (int i = 0; i < nodes.size(); i++) {
+			minX = Math.min(minX, nodes.getX(i));
+			minY = Math.min(minY, nodes.getY(i));
+			maxX = Math.max(maxX, nodes.getX(i));
+			maxY = Math.max(maxY, nodes.getY(i));
+		}
+		Random random = new Random(1);
+		double[] xs = new double[2000], ys = new double[2000];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = minX + random.nextDouble() * (maxX - minX);
+			ys[i] = minY + random.nextDouble() * (maxY - minY);
+		}
+
+		final double radius = 0.5;
+		final int count = 10;
+		int differences = 0;
+		long indexWithin = 0, scanWithin = 0, indexClosest = 0, scanClosest = 0;
+		long segmentIndexWithin = 0, segmentScanWithin = 0;
+		long segmentIndexClosest = 0, segmentScanClosest = 0;
+		for (int round = 0; round < 2; round++) {
+			boolean timed = round == 1;
+			for (int i = 0; i < xs.length; i++) {
+				final double x = xs[i], y = ys[i];
+
+				long start = System.nanoTime();
+				List<Node> within = map.nodesWithin(x, y, radius);
+				long middle = System.nanoTime();
+				List<Integer> scanned = new ArrayList<Integer>();
+				for (int j = 0; j < nodes.size(); j++) {
+					if (Math.hypot(nodes.getX(j) - x, nodes.getY(j) - y) <= radius) {
+						scanned.add(j);
+					}
+				}
+				long end = System.nanoTime();
+				differences += differ(nodeIndices(within), scanned);
+				if (timed) {
+					indexWithin += middle - start;
+					scanWithin += end - middle;
+				}
+
+				start = System.nanoTime();
+				List<Node> closest = map.closestNodes(x, y, count);
+				middle = System.nanoTime();
+				List<Integer> nearest = nearest(nodes.size(), count,
+						new Distance() {
+							@Override
+							public double to(int item) {
+								return Math.hypot(nodes.getX(item) - x,
+										nodes.getY(item) - y);
+							}
+						});
+				end = System.nanoTime();
+				differences += differ(nodeIndices(closest), nearest);
+				if (timed) {
+					indexClosest += middle - start;
+					scanClosest += end - middle;
+				}
+
+				start = System.nanoTime();
+				List<Segment> segmentsWithin = map.segmentsWithin(x, y, radius);
+				middle = System.nanoTime();
+				List<Segment> segmentsScanned = new ArrayList<Segment>();
+				for (Segment s : segments) {
+					if (s.distance(x, y) <= radius) {
+						segmentsScanned.add(s);
+					}
+				}
+				end = System.nanoTime();
+				differences += segmentsWithin.equals(segmentsScanned) ? 0 : 1;
+				if (timed) {
+					segmentIndexWithin += middle - start;
+					segmentScanWithin += end - middle;
+				}
+
+				start = System.nanoTime();
+				List<Segment> segmentsClosest = map.closestSegments(x, y, count);
+				middle = System.nanoTime();
+				List<Integer> nearestSegments = nearest(segments.length, count,
+						new Distance() {
+							@Override
+							public double to(int item) {
+								return segments[item].distance(x, y);
+							}
+						});
+				end = System.nanoTime();
+				List<Segment> segmentsNearest = new ArrayList<Segment>();
+				for (int j : nearestSegments) {
+					segmentsNearest.add(segments[j]);
+				}
+				differences += segmentsClosest.equals(segmentsNearest) ? 0 : 1;
+				if (timed) {
+					segmentIndexClosest += middle - start;
+					segmentScanClosest += end - middle;
+				}
+			}
+		}
+		double n = xs.length * 1e3;
+		System.out.println(String.format(
+				"  nodes within R    scan %8.1f, index %6.1f", scanWithin / n,
+				indexWithin / n));
+		System.out.println(String.format(
+				"  nodes closest     scan %8.1f, index %6.1f",
+				scanClosest / n, indexClosest / n));
+		System.out.println(String.format(
+				"  segments within R scan %8.1f, index %6.1f",
+				segmentScanWithin / n, segmentIndexWithin / n));
+		System.out.println(String.format(
+				"  segments closest  scan %8.1f, index %6.1f",
+				segmentScanClosest / n, segmentIndexClosest / n));
+		System.out.println("  " + differences
+				+ " queries differed from the scan");
+	}
+
+	/**
+	 * The distance from the position being queried to an item
+	 *
+	 * @author Oliver Greenaway
+	 *
+	 */
+	private interface Distance {
+
+		/**
+		 * Returns the distance to an item
+		 *
+		 * @param item
+		 *            The index of the item
+		 * @return The distance in kilometres
+		 */
+		double to(int item);
+	}
+
+	/**
+	 * Finds the closest items by sorting every item by its distance, ties
+	 * going to the lowest index
+	 *
+	 * @param size
+	 *            The number of items
+	 * @param count
+	 *            The number of items wanted
+	 * @param distance
+	 *            The distance to each item
+	 * @return The indices of the closest items, closest first
+	 */
+	private static List<Integer> nearest(int size, int count,
+			final Distance distance) {
+		final double[] distances = new double[size];
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			distances[i] = distance.to(i);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(distances[a], distances[b]);
+			}
+		});
+		return Arrays.asList(order).subList(0, Math.min(count, size));
+	}
+
+	/**
+	 * Returns the positions of the nodes in their collection
+	 *
+	 * @param found
+	 *            The nodes
+	 * @return The index of each node
+	 */
+	private static List<Integer> nodeIndices(List<Node> found) {
+		List<Integer> indices = new ArrayList<Integer>(found.size());
+		for (Node n : found) {
+			indices.add(n.getIndex());
+		}
+		return indices;
+	}
+
+	/**
+	 * Compares the result of a query with the result of a scan
+	 *
+	 * @param query
+	 *            The result of the query
+	 * @param scan
+	 *            The result of the scan
+	 * @return 0 if they are the same, otherwise 1
+	 */
+	private static int differ(List<Integer> query, List<Integer> scan) {
+		return query.equals(scan) ? 0 : 1;
+	}
+
+	/**
+	 * Times drawing a frame centred on the map at a range of zooms, with the
+	 * tile cache emptied before each frame so every tile is drawn. Then
+	 * measures the memory allocated by frames drawn from cached tiles while
+	 * the map moves a pixel each frame, which should be none
+	 */
+	private void frames() {
+		System.out.println("Frames of " + WIDTH + "x" + HEIGHT
+				+ ", tiles drawn each frame, mean of 200 in ms, "
+				+ "and bytes allocated per frame from cached tiles");
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		for (double zoom : new double[] { 2, 8, 32, 128, 512 }) {
+			map.centre(zoom, WIDTH, HEIGHT);
+			long total = 0;
+			for (int frame = 0; frame < 210; frame++) {
+				map.getTileCache().clear();
+				Graphics2D g = image.createGraphics();
+				g.setColor(Map.BACKGROUND);
+				g.fillRect(0, 0, WIDTH, HEIGHT);
+				g.setClip(0, 0, WIDTH, HEIGHT);
+				long start = System.nanoTime();
+				map.draw(g);
+				if (frame >= 10) {
+					total += System.nanoTime() - start;
+				}
+				g.dispose();
+			}
+
+			// The graphics is reused, as the window reuses its pane's. Frames
+			// drawn before the code is compiled can still allocate, so many
+			// are drawn before measuring
+			Graphics2D g = image.createGraphics();
+			g.setClip(0, 0, WIDTH, HEIGHT);
+			long bytes = 0;
+			for (int frame = 0; frame < 2200; frame++) {
+				if (frame == 2000) {
+					bytes = FrameScheduler.allocatedBytes();
+				}
+				map.moveMap(frame % 2 == 0 ? 1 : -1, 0);
+				map.draw(g);
+			}
+			long allocated = bytes < 0 ? -1 : FrameScheduler.allocatedBytes()
+					- bytes;
+			g.dispose();
+			System.out.println(String.format("  zoom %4.0f: %6.2f ms, %s", zoom,
+					total / 200 / 1e6, allocated < 0 ? "unknown"
+							: (allocated / 200) + " bytes"));
+		}
+	}
+
+	/**
+	 * Times reading the polygon file on the current thread with each loader,
+	 * and with the reader alone, along with the memory each allocates. The
+	 * loaders' times include preparing the polygons for drawing
+	 *
+	 * @throws IOException
+	 *             If the polygon file can not be read
+	 */
+	private void polygons() throws IOException {
+		final File file = new File(directory + "polygon-shapes.mp");
+		if (!file.exists()) {
+			return;
+		}
+		System.out.println("Polygons, best of 5 runs");
+		for (final boolean mapped : new boolean[] { false, true }) {
+			time(mapped ? "mapped " : "scanner", new Runnable() {
+				public void run() {
+					Map.setMappedLoading(mapped);
+					map.initPolygons();
+					Map.setMappedLoading(true);
+				}
+			});
+		}
+		final ByteBuffer buffer = TabFile.map(file);
+		time("reader ", new Runnable() {
+			public void run() {
+				MpReader reader = new MpReader(buffer.duplicate());
+				while (reader.next()) {
+					sink += reader.getRingCount();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Prints the shortest time and the memory allocated by one of five runs
+	 * after a warm up
+	 *
+	 * @param name
+	 *            What is being run
+	 * @param run
+	 *            The work being timed
+	 */
+	private static void time(String name, Runnable run) {
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int i = 0; i < 6; i++) {
+			long bytes = FrameScheduler.allocatedBytes();
+			long start = System.nanoTime();
+			run.run();
+			long time = System.nanoTime() - start;
+			if (i > 0 && time < best) {
+				best = time;
+				allocated = bytes < 0 ? -1 : FrameScheduler.allocatedBytes()
+						- bytes;
+			}
+		}
+		System.out.println(String.format("  %s %8.1f ms, %s allocated", name,
+				best / 1e6, allocated < 0 ? "unknown" : (allocated >> 10)
+						+ " KB"));
+	}
+
+	/**
+	 * Runs every benchmark on each of the given data directories. Polygons
+	 * are read last, as reading them again fades them in on later frames
+	 *
+	 * @param args
+	 *            The data directories to measure
+	 */
+	public static void main(String[] args) {
+		for (String dir : args) {
+			if (!dir.endsWith(File.separator)) {
+				dir += File.separator;
+			}
+			System.out.println(dir);
+			MapBenchmark bench = new MapBenchmark(dir);
+			bench.loading();
+			bench.lookups();
+			bench.names();
+			bench.queries();
+			bench.frames();
+			try {
+				bench.polygons();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		System.exit(0);
+	}
+}
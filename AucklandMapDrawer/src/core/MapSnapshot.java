@@ -0,0 +1,499 @@
+package core;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import util.CoordinateBuffer;
+import util.NodeArray;
+import util.RoadArray;
+import util.RoadNameIndex;
+import util.StringDictionary;
+import util.TabFile;
+
+/**
+ * Reads and writes a compiled binary copy of a map directory so that later
+ * loads can skip parsing, sorting and linking the text data files. The
+ * snapshot holds the linked road graph and the road name index as well as
+ * the map itself, so neither has to be rebuilt. It records the size and
+ * modification time of each data file it was compiled from and is ignored
+ * once any of them change
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class MapSnapshot {
+
+	// The name of the snapshot file within the data directory
+	public static final String FILE_NAME = "map.snapshot";
+
+	// Identifies the file and the layout it was written with
+	private static final int MAGIC = 0x414b4d50;
+	private static final int VERSION = 3;
+
+	// The data files the snapshot is compiled from
+	private static final String[] SOURCES = { "nodeID-lat-lon.tab",
+			"roadID-roadInfo.tab",
+			"roadSeg-roadID-length-nodeID-nodeID-coords.tab",
+			"polygon-shapes.mp" };
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	// The parts of a loaded snapshot that are not added to collections
+	private boolean polygonsExist;
+	private RoadGraph graph;
+	private RoadNameIndex roadNames;
+
+	/**
+	 * Constructs the parts of a loaded snapshot that are not added to
+	 * collections
+	 *
+	 * @param polygonsExist
+	 *            Whether the map had a polygon file
+	 * @param graph
+	 *            The road graph
+	 * @param roadNames
+	 *            The road name index
+	 */
+	private MapSnapshot(boolean polygonsExist, RoadGraph graph,
+			RoadNameIndex roadNames) {
+		this.polygonsExist = polygonsExist;
+		this.graph = graph;
+		this.roadNames = roadNames;
+	}
+
+	/**
+	 * Returns whether the map had a polygon file
+	 *
+	 * @return True if the polygons were read from a file
+	 */
+	boolean hasPolygons() {
+		return polygonsExist;
+	}
+
+	/**
+	 * Returns the road graph held by the snapshot
+	 *
+	 * @return The road graph
+	 */
+	RoadGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the road name index held by the snapshot
+	 *
+	 * @return The road name index
+	 */
+	RoadNameIndex getRoadNames() {
+		return roadNames;
+	}
+
+	/**
+	 * Checks whether the directory contains a snapshot that was compiled from
+	 * the current data files
+	 *
+	 * @param directory
+	 *            The directory containing the data files
+	 * @return True if the snapshot can be loaded
+	 */
+	static boolean isCurrent(String directory) {
+		File file = new File(directory + FILE_NAME);
+		if (!file.exists()) {
+			return false;
+		}
+		try {
+			ByteBuffer buffer = TabFile.map(file);
+			return readHeader(buffer, directory);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the snapshot in the directory into the given collections, linking
+	 * the segments with their end nodes, along with the road graph and the
+	 * road name index
+	 *
+	 * @param directory
+	 *            The directory containing the snapshot
+	 * @param nodes
+	 *            The empty collection the nodes are added to
+	 * @param roads
+	 *            The empty collection the roads are added to
+	 * @param names
+	 *            The dictionary the road names are stored in
+	 * @param polygons
+	 *            The empty store the polygons are added to
+	 * @param points
+	 *            The empty buffer the segment coordinates are added to
+	 * @return The snapshot's road graph, road name index and whether the map
+	 *         had a polygon file
+	 * @throws IOException
+	 *             If the snapshot is stale or can not be read
+	 */
+	static MapSnapshot read(String directory, NodeArray nodes, RoadArray roads,
+			StringDictionary names, PolygonStore polygons, CoordinateBuffer points)
+			throws IOException {
+		ByteBuffer buffer = TabFile.map(new File(directory + FILE_NAME));
+		if (!readHeader(buffer, directory)) {
+			throw new IOException("Snapshot does not match " + directory);
+		}
+
+		int nodeCount = buffer.getInt();
+		for (int i = 0; i < nodeCount; i++) {
+			nodes.add(buffer.getInt(), buffer.getDouble(), buffer.getDouble());
+		}
+		nodes.trim();
+
+		int roadCount = buffer.getInt();
+		for (int i = 0; i < roadCount; i++) {
+			Road road = new Road(names, buffer.getInt(), buffer.getInt(),
+					readString(buffer), readString(buffer), buffer.get(),
+					buffer.get(), buffer.get(), buffer.get(), buffer.get(),
+					buffer.get());
+			roads.add(road);
+			int segmentCount = buffer.getInt();
+			for (int j = 0; j < segmentCount; j++) {
+				Segment s = new Segment(road.getID(), buffer.getDouble(),
+						buffer.getInt(), buffer.getInt(), road.isOneWay(),
+						road.getSpeed());
+				int node1 = buffer.getInt();
+				int node2 = buffer.getInt();
+				int pointCount = buffer.getInt();
+				int first = points.size();
+				for (int k = 0; k < pointCount; k++) {
+					points.add(buffer.getDouble(), buffer.getDouble());
+				}
+				s.setPoints(points, first, pointCount);
+				road.addSegment(s);
+				s.connect(nodes, node1, node2);
+			}
+		}
+
+		boolean polygonsExist = buffer.get() == 1;
+		int polygonCount = buffer.getInt();
+		for (int i = 0; i < polygonCount; i++) {
+			Color texture = null;
+			if (buffer.get() == 1) {
+				texture = new Color(buffer.getInt());
+			}
+			polygons.startPolygon(texture, buffer.getInt());
+			readRing(buffer, polygons);
+			int cutoutCount = buffer.getInt();
+			for (int j = 0; j < cutoutCount; j++) {
+				readRing(buffer, polygons);
+			}
+		}
+
+		int[] offsets = new int[buffer.getInt()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = buffer.getInt();
+		}
+		int edgeCount = buffer.getInt();
+		int[] targets = new int[edgeCount];
+		int[] edgeSegments = new int[edgeCount];
+		boolean[] against = new boolean[edgeCount];
+		for (int i = 0; i < edgeCount; i++) {
+			targets[i] = buffer.getInt();
+			edgeSegments[i] = buffer.getInt();
+			against[i] = buffer.get() == 1;
+		}
+		RoadGraph graph = new RoadGraph(nodes, roads, offsets, targets,
+				edgeSegments, against);
+
+		byte[] letters = new byte[buffer.getInt()];
+		buffer.get(letters);
+		int nameCount = buffer.getInt();
+		int[] nameStarts = new int[nameCount + 1];
+		int[] firstRoads = new int[nameCount + 1];
+		for (int i = 0; i <= nameCount; i++) {
+			nameStarts[i] = buffer.getInt();
+			firstRoads[i] = buffer.getInt();
+		}
+		Road[] named = new Road[firstRoads[nameCount]];
+		for (int i = 0; i < named.length; i++) {
+			named[i] = roads.get(buffer.getInt());
+		}
+		return new MapSnapshot(polygonsExist, graph, new RoadNameIndex(
+				letters, nameStarts, named, firstRoads));
+	}
+
+	/**
+	 * Writes a snapshot of the loaded map into the directory. The snapshot is
+	 * written to a temporary file first so a failed write never leaves a
+	 * partial snapshot behind
+	 *
+	 * @param directory
+	 *            The directory containing the data files
+	 * @param nodes
+	 *            The sorted collection of nodes
+	 * @param roads
+	 *            The sorted collection of roads, connected to the nodes
+	 * @param polygons
+	 *            The store of polygons
+	 * @param polygonsExist
+	 *            Whether the map had a polygon file
+	 * @param graph
+	 *            The graph of the roads
+	 * @param roadNames
+	 *            The index of the road names
+	 * @throws IOException
+	 *             If the snapshot can not be written
+	 */
+	static void write(String directory, NodeArray nodes, RoadArray roads,
+			PolygonStore polygons, boolean polygonsExist, RoadGraph graph,
+			RoadNameIndex roadNames) throws IOException {
+		File file = new File(directory + FILE_NAME);
+		File temp = new File(directory + FILE_NAME + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(SOURCES.length);
+			for (String source : SOURCES) {
+				File f = new File(directory + source);
+				out.writeLong(f.exists() ? f.length() : -1);
+				out.writeLong(f.exists() ? f.lastModified() : -1);
+			}
+
+			out.writeInt(nodes.size());
+			for (int i = 0; i < nodes.size(); i++) {
+				out.writeInt(nodes.getID(i));
+				out.writeDouble(nodes.getX(i));
+				out.writeDouble(nodes.getY(i));
+			}
+
+			out.writeInt(roads.size());
+			for (Road r : roads) {
+				out.writeInt(r.getID());
+				out.writeInt(r.getType());
+				writeString(out, r.getRoadName());
+				writeString(out, r.getCity());
+				out.writeByte(r.isOneWay() ? 1 : 0);
+				out.writeByte(r.getSpeedCategory());
+				for (int restriction : r.getRestrictions()) {
+					out.writeByte(restriction);
+				}
+				out.writeInt(r.getSegments().size());
+				for (Segment s : r.getSegments()) {
+					out.writeDouble(s.getAccurLength());
+					out.writeInt(s.getNode1ID());
+					out.writeInt(s.getNode2ID());
+					out.writeInt(s.getNode1Index());
+					out.writeInt(s.getNode2Index());
+					writePoints(out, s);
+				}
+			}
+
+			out.writeByte(polygonsExist ? 1 : 0);
+			out.writeInt(polygons.size());
+			for (int i = 0; i < polygons.size(); i++) {
+				Color texture = polygons.getTexture(i);
+				out.writeByte(texture == null ? 0 : 1);
+				if (texture != null) {
+					out.writeInt(texture.getRGB());
+				}
+				out.writeInt(polygons.getLevel(i));
+				int rings = polygons.getRingCount(i);
+				if (rings == 0) {
+					out.writeInt(0);
+				} else {
+					writeRing(out, polygons, i, 0);
+				}
+				out.writeInt(Math.max(rings - 1, 0));
+				for (int ring = 1; ring < rings; ring++) {
+					writeRing(out, polygons, i, ring);
+				}
+			}
+
+			out.writeInt(graph.getNodeCount() + 1);
+			for (int i = 0; i <= graph.getNodeCount(); i++) {
+				out.writeInt(i == graph.getNodeCount() ? graph.getEdgeCount()
+						: graph.getFirstEdge(i));
+			}
+			out.writeInt(graph.getEdgeCount());
+			for (int i = 0; i < graph.getEdgeCount(); i++) {
+				out.writeInt(graph.getTarget(i));
+				out.writeInt(graph.getSegmentIndex(i));
+				out.writeByte(graph.isAgainstOneWay(i) ? 1 : 0);
+			}
+
+			int nameCount = roadNames.getNameCount();
+			out.writeInt(roadNames.getNameStart(nameCount));
+			for (int i = 0; i < roadNames.getNameStart(nameCount); i++) {
+				out.writeByte(roadNames.getLetter(i));
+			}
+			out.writeInt(nameCount);
+			for (int i = 0; i <= nameCount; i++) {
+				out.writeInt(roadNames.getNameStart(i));
+				out.writeInt(roadNames.getFirstRoad(i));
+			}
+			for (int i = 0; i < roadNames.getFirstRoad(nameCount); i++) {
+				out.writeInt(roadNames.getRoad(i).getID());
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			temp.delete();
+			throw new IOException("Could not replace " + file);
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * Reads the header of the snapshot and checks it against the data files
+	 * in the directory, leaving the buffer positioned after the header
+	 *
+	 * @param buffer
+	 *            The buffer containing the snapshot
+	 * @param directory
+	 *            The directory containing the data files
+	 * @return True if the snapshot matches the data files
+	 */
+	private static boolean readHeader(ByteBuffer buffer, String directory) {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+				|| buffer.getInt() != SOURCES.length) {
+			return false;
+		}
+		for (String source : SOURCES) {
+			File f = new File(directory + source);
+			long length = buffer.getLong();
+			long modified = buffer.getLong();
+			if (length != (f.exists() ? f.length() : -1)
+					|| modified != (f.exists() ? f.lastModified() : -1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a ring written by writeRing into the current polygon of the store
+	 *
+	 * @param buffer
+	 *            The buffer containing the snapshot
+	 * @param polygons
+	 *            The store the ring is added to
+	 */
+	private static void readRing(ByteBuffer buffer, PolygonStore polygons) {
+		int length = buffer.getInt();
+		polygons.startRing();
+		for (int i = 0; i + 1 < length; i += 2) {
+			polygons.addPoint(buffer.getDouble(), buffer.getDouble());
+		}
+		if (length % 2 == 1) {
+			buffer.getDouble();
+		}
+	}
+
+	/**
+	 * Writes the number of coordinates in a ring of a polygon followed by
+	 * each coordinate
+	 *
+	 * @param out
+	 *            The stream being written to
+	 * @param polygons
+	 *            The store holding the polygon
+	 * @param polygon
+	 *            The index of the polygon
+	 * @param ring
+	 *            The index of the ring within the polygon
+	 * @throws IOException
+	 *             If the stream can not be written to
+	 */
+	private static void writeRing(DataOutputStream out, PolygonStore polygons,
+			int polygon, int ring) throws IOException {
+		int start = polygons.getRingStart(polygon, ring);
+		int end = polygons.getRingEnd(polygon, ring);
+		out.writeInt((end - start) * 2);
+		for (int i = start; i < end; i++) {
+			out.writeDouble(polygons.getX(i));
+			out.writeDouble(polygons.getY(i));
+		}
+	}
+
+	/**
+	 * Writes the number of points along the segment followed by each
+	 * coordinate pair
+	 *
+	 * @param out
+	 *            The stream being written to
+	 * @param segment
+	 *            The segment whose points are written
+	 * @throws IOException
+	 *             If the stream can not be written to
+	 */
+	private static void writePoints(DataOutputStream out, Segment segment)
+			throws IOException {
+		out.writeInt(segment.getPointCount());
+		for (int i = 0; i < segment.getPointCount(); i++) {
+			out.writeDouble(segment.getPointX(i));
+			out.writeDouble(segment.getPointY(i));
+		}
+	}
+
+	/**
+	 * Reads a length prefixed string
+	 *
+	 * @param buffer
+	 *            The buffer containing the snapshot
+	 * @return The string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Writes the length of the string followed by its bytes
+	 *
+	 * @param out
+	 *            The stream being written to
+	 * @param s
+	 *            The string to be written
+	 * @throws IOException
+	 *             If the stream can not be written to
+	 */
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bytes = s.getBytes(CHARSET);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Compiles a snapshot for each of the given data directories
+	 *
+	 * @param args
+	 *            The data directories to compile
+	 */
+	public static void main(String[] args) {
+		for (String dir : args) {
+			if (!dir.endsWith(File.separator)) {
+				dir += File.separator;
+			}
+			if (isCurrent(dir)) {
+				System.out.println(dir + FILE_NAME + " is up to date");
+				continue;
+			}
+			try {
+				new Map(dir, null).compile();
+				System.out.println("Compiled " + dir + FILE_NAME);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -15,6 +16,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -25,6 +27,11 @@ import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import util.FrameScheduler;
+import util.LoadProgress;
 
 /**
  * The main class for the Mapping program, handles the GUI and interaction with
@@ -52,6 +59,27 @@ public class Mapper extends JFrame {
 
 	// Rendering Objects
 	BufferedImage buffer;
+	private Graphics2D bufferGraphics;
+
+	// The drawing pane's graphics, fetched again after each paint from the
+	// system or resize rather than for every frame
+	private Graphics2D paneGraphics;
+
+	// What the buffer was last drawn from, so a frame that only moves the
+	// map can shift the buffer rather than draw it all again
+	private Map drawnMap;
+	private boolean drawnTiled;
+	private Point drawnOrigin = new Point();
+	private Point origin = new Point();
+	private int drawnChanges;
+
+	// Draws at most one frame per display refresh however many events ask
+	// for one
+	private FrameScheduler frames = new FrameScheduler(60, new Runnable() {
+		public void run() {
+			drawFrame();
+		}
+	});
 
 	// Directory containing map data
 	private String dataDirectory = "";
@@ -59,6 +87,15 @@ public class Mapper extends JFrame {
 	// Map Objects
 	private Map map;
 
+	// Background loading of the map
+	private SwingWorker<Map, Void> loader;
+	private LoadProgress loadProgress;
+	private Timer loadTimer = new Timer(100, new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			updateLoadStatus();
+		}
+	});
+
 	/**
 	 * Creates a Mapper instance initializing the GUI and ActionListeners
 	 */
@@ -105,6 +142,10 @@ public class Mapper extends JFrame {
 			public void mouseDragged(MouseEvent e) {
 				panelMouseDragged(e);
 			}
+
+			public void mouseMoved(MouseEvent e) {
+				panelMouseMoved(e);
+			}
 		});
 		drawingPane.addMouseWheelListener(new MouseAdapter() {
 			public void mouseWheelMoved(MouseWheelEvent e) {
@@ -185,9 +226,11 @@ public class Mapper extends JFrame {
 				map.clickedSourceNode(e.getX(), e.getY());
 			} else if (SwingUtilities.isRightMouseButton(e)) {
 				map.clickedDestNode(e.getX(), e.getY());
+			} else if (SwingUtilities.isMiddleMouseButton(e)) {
+				map.clickedRoad(e.getX(), e.getY());
 			}
 		}
-		repaint();
+		frames.requestFrame();
 	}
 
 	/**
@@ -203,7 +246,19 @@ public class Mapper extends JFrame {
 		if (map != null) {
 			map.moveMap(pMouseX - mouseX, pMouseY - mouseY);
 		}
-		repaint();
+		frames.requestFrame();
+	}
+
+	/**
+	 * Called when the mouse is moved over the graphics pane without a button
+	 * held, highlighting the intersection under it
+	 *
+	 * @param e
+	 */
+	public void panelMouseMoved(MouseEvent e) {
+		if (map != null && map.hover(e.getX(), e.getY())) {
+			frames.requestFrame();
+		}
 	}
 
 	/**
@@ -212,8 +267,10 @@ public class Mapper extends JFrame {
 	 * @param e
 	 */
 	public void panelMouseWheelMoved(MouseWheelEvent e) {
-		map.zoom(e.getWheelRotation() * -1);
-		repaint();
+		if (map != null) {
+			map.zoom(e.getWheelRotation() * -1);
+		}
+		frames.requestFrame();
 	}
 
 	/**
@@ -227,9 +284,8 @@ public class Mapper extends JFrame {
 			fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
 			int returnValue = fc.showOpenDialog(this);
 			if (returnValue == JFileChooser.APPROVE_OPTION) {
-				repaint();
 				dataDirectory = fc.getSelectedFile().getPath() + "/";
-				map = new Map(dataDirectory, this);
+				loadMap(dataDirectory);
 			} else {
 				return;
 			}
@@ -248,7 +304,77 @@ public class Mapper extends JFrame {
 				map.updatePath();
 			}
 		}
-		repaint();
+		frames.requestFrame();
+	}
+
+	/**
+	 * Loads the map in the given directory on a background thread, cancelling
+	 * any load that is still in progress. The map is displayed as soon as its
+	 * road network is linked, with polygons and road search following once
+	 * they have loaded
+	 *
+	 * @param directory
+	 *            The directory containing the data files
+	 */
+	private void loadMap(final String directory) {
+		if (loader != null) {
+			loader.cancel(true);
+			loadProgress.cancel();
+		}
+		final LoadProgress progress = new LoadProgress();
+		loadProgress = progress;
+		map = null;
+		selectedRoads = null;
+		dropDown.setEnabled(false);
+		loader = new SwingWorker<Map, Void>() {
+			protected Map doInBackground() {
+				return new Map(directory, Mapper.this, progress);
+			}
+
+			protected void done() {
+				if (isCancelled() || progress.isCancelled()) {
+					return;
+				}
+				try {
+					map = get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					// The map could not be loaded, so stop showing progress
+					loadTimer.stop();
+					setTitle("Auckland Road System");
+					textArea.setText("Could not load " + directory + "\n"
+							+ e.getCause().getMessage());
+					e.getCause().printStackTrace();
+				}
+				frames.requestFrame();
+			}
+		};
+		loader.execute();
+		loadTimer.start();
+	}
+
+	/**
+	 * Shows the progress of the map currently loading, and keeps the map
+	 * redrawing until polygons and road search are ready
+	 */
+	private void updateLoadStatus() {
+		String title = "Auckland Road System";
+		if (map == null) {
+			textArea.setText("Loading " + dataDirectory + "\n" + loadProgress);
+			title += " - Loading " + (int) (loadProgress.getFraction() * 100)
+					+ "%";
+		} else {
+			dropDown.setEnabled(map.isSearchReady());
+			if (map.isLoaded() && !map.isFading()) {
+				loadTimer.stop();
+			} else if (!map.isLoaded()) {
+				title += " - Loading "
+						+ (int) (loadProgress.getFraction() * 100) + "%";
+			}
+			frames.requestFrame();
+		}
+		setTitle(title);
 	}
 
 	/**
@@ -268,7 +394,7 @@ public class Mapper extends JFrame {
 				dropDown.addItem(r.getName());
 			}
 		}
-		repaint();
+		frames.requestFrame();
 	}
 
 	/**
@@ -285,38 +411,140 @@ public class Mapper extends JFrame {
 				}
 			}
 		}
-		repaint();
+		frames.requestFrame();
 	}
 
 	/**
-	 * Renders a graphical output to be displayed
+	 * Renders a graphical output to be displayed. The buffer is only replaced
+	 * when the size of the drawing pane changes. If the map has only moved
+	 * since the buffer was last drawn, the pixels already drawn are shifted
+	 * and only the strips uncovered by the move are drawn
 	 */
 	private void updateBuffer() {
-		buffer = new BufferedImage(drawingPane.getWidth(),
-				drawingPane.getHeight(), BufferedImage.TYPE_INT_RGB);
-		Graphics2D g2 = buffer.createGraphics();
-		g2.setColor(new Color(239, 232, 204));
-		g2.fillRect(0, 0, drawingPane.getWidth(), drawingPane.getHeight());
+		boolean resized = buffer == null
+				|| buffer.getWidth() != drawingPane.getWidth()
+				|| buffer.getHeight() != drawingPane.getHeight();
+		if (resized) {
+			releasePaneGraphics();
+			if (bufferGraphics != null) {
+				bufferGraphics.dispose();
+			}
+			buffer = new BufferedImage(drawingPane.getWidth(),
+					drawingPane.getHeight(), BufferedImage.TYPE_INT_RGB);
+			bufferGraphics = buffer.createGraphics();
+		}
+		boolean tiled = map != null && map.getTileOrigin(origin);
+		int changes = map == null ? 0 : map.getChanges();
+		if (!resized && map == drawnMap && tiled && drawnTiled
+				&& changes == drawnChanges) {
+			shiftBuffer(origin.x - drawnOrigin.x, origin.y - drawnOrigin.y);
+		} else {
+			drawBuffer(0, 0, buffer.getWidth(), buffer.getHeight());
+		}
+		drawnMap = map;
+		drawnTiled = tiled;
+		drawnOrigin.setLocation(origin);
+		drawnChanges = changes;
+	}
+
+	/**
+	 * Moves the pixels of the buffer, drawing the strips along the edges
+	 * that the move uncovers
+	 *
+	 * @param dx
+	 *            The distance to move right, in pixels
+	 * @param dy
+	 *            The distance to move down, in pixels
+	 */
+	private void shiftBuffer(int dx, int dy) {
+		int width = buffer.getWidth();
+		int height = buffer.getHeight();
+		if (Math.abs(dx) >= width || Math.abs(dy) >= height) {
+			drawBuffer(0, 0, width, height);
+			return;
+		}
+		if (dx != 0 || dy != 0) {
+			bufferGraphics.setClip(0, 0, width, height);
+			bufferGraphics.copyArea(Math.max(0, -dx), Math.max(0, -dy),
+					width - Math.abs(dx), height - Math.abs(dy), dx, dy);
+		}
+		if (dx != 0) {
+			drawBuffer(dx > 0 ? 0 : width + dx, 0, Math.abs(dx), height);
+		}
+		if (dy != 0) {
+			drawBuffer(0, dy > 0 ? 0 : height + dy, width, Math.abs(dy));
+		}
+	}
+
+	/**
+	 * Draws the map into an area of the buffer
+	 *
+	 * @param x
+	 *            The left of the area, in pixels
+	 * @param y
+	 *            The top of the area, in pixels
+	 * @param width
+	 *            The width of the area, in pixels
+	 * @param height
+	 *            The height of the area, in pixels
+	 */
+	private void drawBuffer(int x, int y, int width, int height) {
+		Graphics2D g2 = bufferGraphics;
+		g2.setClip(x, y, width, height);
+		g2.setColor(Map.BACKGROUND);
+		g2.fillRect(x, y, width, height);
 		g2.setColor(Color.black);
 		if (map != null) {
 			map.draw(g2);
 		}
-		g2.dispose();
 	}
 
 	/**
 	 * Updates Graphics and displays the current buffer image onto the window
 	 */
-	public void paint(Graphics g) {
+	private void drawFrame() {
 		updateBuffer();
-		Graphics2D g2 = (Graphics2D) drawingPane.getGraphics();
-		if (buffer != null) {
-			g2.drawImage(buffer, 0, 0, this);
+		if (paneGraphics == null) {
+			paneGraphics = (Graphics2D) drawingPane.getGraphics();
 		}
+		if (paneGraphics != null) {
+			paneGraphics.drawImage(buffer, 0, 0, this);
+		}
+	}
+
+	/**
+	 * Throws away the drawing pane's graphics, so the next frame fetches them
+	 * again for the pane as it is now
+	 */
+	private void releasePaneGraphics() {
+		if (paneGraphics != null) {
+			paneGraphics.dispose();
+			paneGraphics = null;
+		}
+	}
+
+	/**
+	 * Draws a frame straight away, as the window has to be painted now. The
+	 * rest of the window is painted too, as the frames drawn between paints
+	 * only draw the map
+	 */
+	public void paint(Graphics g) {
+		releasePaneGraphics();
+		frames.frameNow();
 		menuPane.repaint();
 		textOutputPane.repaint();
 	}
 
+	/**
+	 * Returns the scheduler drawing the frames, which records how long they
+	 * take
+	 *
+	 * @return The frame scheduler
+	 */
+	public FrameScheduler getFrameScheduler() {
+		return frames;
+	}
+
 	/**
 	 *
 	 * @param args
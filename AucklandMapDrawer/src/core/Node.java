@@ -3,38 +3,34 @@ package core;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
-import java.util.ArrayList;
 import java.util.List;
 
+import util.NodeArray;
+
 /**
- * Represents an intersection on a map
+ * Represents an intersection on a map. The details of the intersection are
+ * held by the NodeArray it belongs to, a Node is a lightweight view onto its
+ * position in that collection
  *
  * @author Oliver Greenaway
  *
  */
 public class Node implements Comparable<Node> {
 
-	private int id;
-	private double x, y;
-	private List<Segment> connections;
-	private boolean selected = false;
-	private int depth = Integer.MAX_VALUE; //for articulation
+	private NodeArray nodes;
+	private int index;
 
 	/**
-	 * Constructs a Node with the given ID, x position and y position
+	 * Constructs a view of the node at the given position of the collection
 	 *
-	 * @param id
-	 *            The ID of the node
-	 * @param x
-	 *            The x position of the node
-	 * @param y
-	 *            The y position of the node
+	 * @param nodes
+	 *            The collection holding the node
+	 * @param index
+	 *            The position of the node in the collection
 	 */
-	public Node(int id, double x, double y) {
-		this.id = id;
-		this.x = x;
-		this.y = y;
-		connections = new ArrayList<Segment>();
+	public Node(NodeArray nodes, int index) {
+		this.nodes = nodes;
+		this.index = index;
 	}
 
 	@Override
@@ -42,13 +38,54 @@ public class Node implements Comparable<Node> {
 		return this.getID() - node.getID();
 	}
 
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Node)) {
+			return false;
+		}
+		Node node = (Node) o;
+		return node.nodes == nodes && node.index == index;
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	/**
+	 * Returns the position of the node in the collection holding it
+	 *
+	 * @return The node index
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
 	/**
 	 * Returns the ID of the node
 	 *
 	 * @return The Node ID
 	 */
 	public int getID() {
-		return this.id;
+		return nodes.getID(index);
+	}
+
+	/**
+	 * Returns the x position of the node
+	 *
+	 * @return The x coordinate
+	 */
+	public double getX() {
+		return nodes.getX(index);
+	}
+
+	/**
+	 * Returns the y position of the node
+	 *
+	 * @return The y coordinate
+	 */
+	public double getY() {
+		return nodes.getY(index);
 	}
 
 	/**
@@ -57,7 +94,7 @@ public class Node implements Comparable<Node> {
 	 * @return The coordinates of the Node
 	 */
 	public Point getPoint() {
-		return new Point((int) this.x, (int) this.y);
+		return new Point((int) getX(), (int) getY());
 	}
 
 	/**
@@ -66,7 +103,7 @@ public class Node implements Comparable<Node> {
 	 * @return Segments connected to the node
 	 */
 	public List<Segment> getNeighbours() {
-		return connections;
+		return nodes.getConnections(index);
 	}
 
 	/**
@@ -82,23 +119,66 @@ public class Node implements Comparable<Node> {
 	 *            The current maps zoom level
 	 */
 	public void draw(Graphics2D g, double offsetX, double offsetY, double zoom) {
+		draw(g, nodes, index, offsetX, offsetY, zoom, nodes.isSelected(index));
+	}
+
+	/**
+	 * Draws the node at the given position of the collection without
+	 * creating a view of it
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param nodes
+	 *            The collection holding the node
+	 * @param index
+	 *            The position of the node in the collection
+	 * @param offsetX
+	 *            The current maps X offset
+	 * @param offsetY
+	 *            The current maps Y offset
+	 * @param zoom
+	 *            The current maps zoom level
+	 * @param selected
+	 *            True to draw the node as selected
+	 */
+	static void draw(Graphics2D g, NodeArray nodes, int index,
+			double offsetX, double offsetY, double zoom, boolean selected) {
+		int x = (int) ((nodes.getX(index) + offsetX) * zoom);
+		int y = (int) ((nodes.getY(index) + offsetY) * zoom);
 		g.setColor(Color.blue);
 		if (selected) {
 			g.setColor(Color.red);
 		}
 		if (selected) {
-			g.drawOval((int) ((this.x + offsetX) * zoom) - 3,
-					(int) ((this.y + offsetY) * zoom) - 3, 6, 6);
+			g.drawOval(x - 3, y - 3, 6, 6);
 		}
-		g.fillRect((int) ((this.x + offsetX) * zoom) - 1,
-				(int) ((this.y + offsetY) * zoom) - 1, 2, 2);
+		g.fillRect(x - 1, y - 1, 2, 2);
 	}
 
 	public void drawArticulation(Graphics2D g, double offsetX, double offsetY,
 			double zoom) {
 		g.setColor(Color.green);
-		g.drawOval((int) ((this.x + offsetX) * zoom) - 4,
-				(int) ((this.y + offsetY) * zoom) - 4, 8, 8);
+		g.drawOval((int) ((getX() + offsetX) * zoom) - 4,
+				(int) ((getY() + offsetY) * zoom) - 4, 8, 8);
+	}
+
+	/**
+	 * Draws a ring around the node to show the mouse is over it
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param offsetX
+	 *            The current offset on the x-axis
+	 * @param offsetY
+	 *            The current offset on the y-axis
+	 * @param zoom
+	 *            The current zoom level
+	 */
+	public void drawHover(Graphics2D g, double offsetX, double offsetY,
+			double zoom) {
+		g.setColor(Color.orange);
+		g.drawOval((int) ((getX() + offsetX) * zoom) - 5,
+				(int) ((getY() + offsetY) * zoom) - 5, 10, 10);
 	}
 
 	/**
@@ -108,7 +188,7 @@ public class Node implements Comparable<Node> {
 	 *            The segment to connect with
 	 */
 	public void connect(Segment segment) {
-		connections.add(segment);
+		nodes.connect(index, segment);
 	}
 
 	/**
@@ -118,7 +198,7 @@ public class Node implements Comparable<Node> {
 	 *            True is selected, false if not
 	 */
 	public void setSelect(boolean s) {
-		selected = s;
+		nodes.setSelected(index, s);
 	}
 
 	/**
@@ -127,11 +207,12 @@ public class Node implements Comparable<Node> {
 	 * @return A string representation of the intersection
 	 */
 	public String getDetails() {
-		String toReturn = getID() + "\n";
-		for (Segment s : connections) {
-			toReturn += s.getName() + "\n";
+		StringBuilder toReturn = new StringBuilder().append(getID()).append(
+				'\n');
+		for (Segment s : getNeighbours()) {
+			toReturn.append(s.getName()).append('\n');
 		}
-		return toReturn;
+		return toReturn.toString();
 	}
 
 	/**
@@ -151,16 +232,8 @@ public class Node implements Comparable<Node> {
 	 */
 	public double getDist(int x, int y, double offsetX, double offsetY,
 			double zoom) {
-		return Point.distance(x, y, (this.x + offsetX) * zoom,
-				(this.y + offsetY) * zoom);
-	}
-
-	public void setDepth(int depth){
-		this.depth = depth;
-	}
-
-	public int getDepth(){
-		return this.depth;
+		return Point.distance(x, y, (getX() + offsetX) * zoom,
+				(getY() + offsetY) * zoom);
 	}
 
 }
@@ -11,41 +11,105 @@ import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.List;
 
-import util.DoublePoint;
+import util.MpReader;
 
 /**
- * An object representing a polygon shape on the map
+ * An object representing a polygon shape on the map. The shape itself is
+ * held by the PolygonStore it was read into, a Polygon is a lightweight view
+ * onto its position in that store
  *
  * @author Oliver Greenaway
  *
  */
 public class Polygon {
 
-	private Color texture;
-	private List<DoublePoint> coordinates = new ArrayList<DoublePoint>();
-	private List<List<DoublePoint>> cutoutPolygons = new ArrayList<List<DoublePoint>>();
-	private int level = 1;
+	private PolygonStore store;
+	private int index;
 
 	/**
-	 * Constructs a new polygon using the given list of details
+	 * Constructs a view of the polygon at the given position of the store
+	 *
+	 * @param store
+	 *            The store holding the polygon
+	 * @param index
+	 *            The position of the polygon in the store
+	 */
+	public Polygon(PolygonStore store, int index) {
+		this.store = store;
+		this.index = index;
+	}
+
+	/**
+	 * Reads a polygon from the given list of details into the store
 	 *
 	 * @param details
 	 *            All details required to construct the polygon
+	 * @param store
+	 *            The store the polygon is added to
+	 * @return The polygon that was added
 	 */
-	public Polygon(List<String> details) {
-		boolean firstData = true;
+	public static Polygon read(List<String> details, PolygonStore store) {
+		Color texture = null;
+		int level = 1;
+		List<double[]> rings = new ArrayList<double[]>();
 		for (String s : details) {
 			if (s.startsWith("Type")) {
-				texture = getType(s.substring(5));
-			} else if (s.startsWith("Data") && firstData) {
-				coordinates = getCoordinates(s.substring(6));
-				firstData = false;
+				texture = getType(Integer.decode(s.substring(5)));
 			} else if (s.startsWith("Data")) {
-				cutoutPolygons.add(getCoordinates(s.substring(6)));
+				rings.add(getCoordinates(s.substring(6)));
 			} else if (s.startsWith("EndLevel")) {
 				level = Integer.parseInt(s.substring(9));
 			}
 		}
+		int index = store.startPolygon(texture, level);
+		for (double[] ring : rings) {
+			store.startRing();
+			for (int i = 0; i + 1 < ring.length; i += 2) {
+				store.addPoint(ring[i], ring[i + 1]);
+			}
+		}
+		return new Polygon(store, index);
+	}
+
+	/**
+	 * Reads the polygon the reader is currently at into the store
+	 *
+	 * @param reader
+	 *            The reader positioned at the polygon
+	 * @param store
+	 *            The store the polygon is added to
+	 * @return The polygon that was added
+	 */
+	public static Polygon read(MpReader reader, PolygonStore store) {
+		int index = store.startPolygon(getType(reader.getType()),
+				reader.getLevel());
+		double[] latLon = reader.getCoordinates();
+		for (int ring = 0; ring < reader.getRingCount(); ring++) {
+			store.startRing();
+			int end = reader.getRingEnd(ring);
+			for (int i = reader.getRingStart(ring); i + 1 < end; i += 2) {
+				store.addPoint(lonToX(latLon[i + 1]), latToY(latLon[i]));
+			}
+		}
+		return new Polygon(store, index);
+	}
+
+	/**
+	 * Returns the colour of the polygon
+	 *
+	 * @return The colour, null if the type is not recognised
+	 */
+	public Color getTexture() {
+		return store.getTexture(index);
+	}
+
+	/**
+	 * Returns the end level of the polygon
+	 *
+	 * @return The end level
+	 */
+	public int getLevel() {
+		return store.getLevel(index);
 	}
 
 	/**
@@ -61,24 +125,17 @@ public class Polygon {
 	 *            The current zoom level
 	 */
 	public void draw(Graphics2D g, double offsetX, double offsetY, double zoom) {
-		java.awt.Polygon p = new java.awt.Polygon();
-		for (DoublePoint c : coordinates) {
-			p.addPoint((int) ((c.getX() + offsetX) * zoom),
-					(int) ((c.getY() + offsetY) * zoom));
-		}
-		g.setColor(texture);
-		g.fillPolygon(p);
+		store.draw(g, index, offsetX, offsetY, zoom);
 	}
 
 	/**
 	 * Takes the hex code for the type of polygon and assigns it a colour.
 	 *
-	 * @param hex
+	 * @param type
 	 *            The type on polygon
 	 * @return A colour representation of the type
 	 */
-	private Color getType(String hex) {
-		int type = Integer.decode(hex);
+	static Color getType(int type) {
 		if (type >= 1 && type <= 3) {
 			return Color.lightGray;
 		}
@@ -110,22 +167,20 @@ public class Polygon {
 	}
 
 	/**
-	 * Takes a string of coordinates and converts them into a list of points
+	 * Takes a string of coordinates and converts them into x,y pairs
 	 *
 	 * @param coordinates
 	 *            The string containing all coordinates
-	 * @return A list of points
+	 * @return An array of alternating x and y values
 	 */
-	private List<DoublePoint> getCoordinates(String coordinates) {
-		List<DoublePoint> points = new ArrayList<DoublePoint>();
+	private static double[] getCoordinates(String coordinates) {
 		coordinates = coordinates.replace(')', ' ');
 		coordinates = coordinates.replace('(', ' ');
 		String[] c = coordinates.split(",");
-		for (int i = 0; i < c.length; i += 2) {
-			double y = latToY(Double.parseDouble(c[i].trim()));
-			double x = lonToX(Double.parseDouble(c[i + 1].trim()));
-
-			points.add(new DoublePoint(x, y));
+		double[] points = new double[c.length / 2 * 2];
+		for (int i = 0; i + 1 < c.length; i += 2) {
+			points[i + 1] = latToY(Double.parseDouble(c[i].trim()));
+			points[i] = lonToX(Double.parseDouble(c[i + 1].trim()));
 		}
 		return points;
 	}
@@ -137,7 +192,7 @@ public class Polygon {
 	 *            The degree of latitude
 	 * @return The Y coordinate
 	 */
-	private double latToY(double latitude) {
+	private static double latToY(double latitude) {
 		return Math.abs(latitude) * 111.0;
 	}
 
@@ -148,7 +203,7 @@ public class Polygon {
 	 *            The degree of longitude
 	 * @return The X coordinate
 	 */
-	private double lonToX(double longitude) {
+	private static double lonToX(double longitude) {
 		return Math.abs(longitude) * 88.649;
 	}
 }
@@ -0,0 +1,454 @@
+package core;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.LevelOfDetail;
+import util.PackedRTree;
+
+/**
+ * Holds the geometry of every polygon of a map in direct buffers outside the
+ * Java heap, so the garbage collector has nothing to trace however many
+ * polygons are loaded. Points are stored as float pairs relative to the first
+ * point added, rings as the index of their first point, and each polygon as a
+ * small header of its colour, level, rings and bounds. Polygons are built by
+ * calling startPolygon, then startRing and addPoint for each ring
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class PolygonStore {
+
+	// Header fields of each polygon, in ints
+	private static final int COLOUR = 0, LEVEL = 1, FIRST_RING = 2,
+			RING_COUNT = 3, MIN_X = 4, MIN_Y = 5, MAX_X = 6, MAX_Y = 7,
+			HEADER_SIZE = 8;
+
+	private IntBuffer headers = allocate(64 * HEADER_SIZE).asIntBuffer();
+	private IntBuffer rings = allocate(64).asIntBuffer();
+	private FloatBuffer points = allocate(1024).asFloatBuffer();
+	private int polygonCount, ringCount, pointCount;
+
+	// The colours used by the polygons, indexed from their headers
+	private List<Color> palette = new ArrayList<Color>();
+
+	// The point all coordinates are stored relative to
+	private double originX, originY;
+
+	// Reused between draws so drawing allocates nothing, one pair of arrays
+	// for each thread as tiles are drawn on several threads at once
+	private ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[][] { new int[256], new int[256] };
+		}
+	};
+
+	// The bounds of the polygons and the zoom band each point is first
+	// drawn at, worked out once every polygon has been added
+	private volatile PackedRTree index;
+	private ByteBuffer bands;
+
+	/**
+	 * Starts a new polygon, which the following rings and points are added to
+	 *
+	 * @param texture
+	 *            The colour of the polygon, may be null
+	 * @param level
+	 *            The end level of the polygon
+	 * @return The index of the polygon
+	 */
+	public int startPolygon(Color texture, int level) {
+		if ((polygonCount + 1) * HEADER_SIZE > headers.capacity()) {
+			headers = grow(headers, headers.capacity() * 2);
+		}
+		int colour = texture == null ? -1 : palette.indexOf(texture);
+		if (texture != null && colour < 0) {
+			colour = palette.size();
+			palette.add(texture);
+		}
+		int header = polygonCount * HEADER_SIZE;
+		headers.put(header + COLOUR, colour);
+		headers.put(header + LEVEL, level);
+		headers.put(header + FIRST_RING, ringCount);
+		headers.put(header + RING_COUNT, 0);
+		headers.put(header + MIN_X, Float.floatToRawIntBits(Float.MAX_VALUE));
+		headers.put(header + MIN_Y, Float.floatToRawIntBits(Float.MAX_VALUE));
+		headers.put(header + MAX_X, Float.floatToRawIntBits(-Float.MAX_VALUE));
+		headers.put(header + MAX_Y, Float.floatToRawIntBits(-Float.MAX_VALUE));
+		return polygonCount++;
+	}
+
+	/**
+	 * Starts a new ring of the current polygon. The first ring is the outline
+	 * and any others are cut outs
+	 */
+	public void startRing() {
+		if (ringCount == rings.capacity()) {
+			rings = grow(rings, rings.capacity() * 2);
+		}
+		rings.put(ringCount++, pointCount);
+		int header = (polygonCount - 1) * HEADER_SIZE + RING_COUNT;
+		headers.put(header, headers.get(header) + 1);
+	}
+
+	/**
+	 * Adds a point to the current ring
+	 *
+	 * @param x
+	 *            The x position of the point
+	 * @param y
+	 *            The y position of the point
+	 */
+	public void addPoint(double x, double y) {
+		if (pointCount == 0) {
+			originX = x;
+			originY = y;
+		}
+		if ((pointCount + 1) * 2 > points.capacity()) {
+			points = grow(points, points.capacity() * 2);
+		}
+		float fx = (float) (x - originX);
+		float fy = (float) (y - originY);
+		points.put(pointCount * 2, fx);
+		points.put(pointCount * 2 + 1, fy);
+		pointCount++;
+
+		int header = (polygonCount - 1) * HEADER_SIZE;
+		setBound(header + MIN_X, Math.min(getBound(header + MIN_X), fx));
+		setBound(header + MIN_Y, Math.min(getBound(header + MIN_Y), fy));
+		setBound(header + MAX_X, Math.max(getBound(header + MAX_X), fx));
+		setBound(header + MAX_Y, Math.max(getBound(header + MAX_Y), fy));
+	}
+
+	/**
+	 * Returns the number of polygons in the store
+	 *
+	 * @return The number of polygons
+	 */
+	public int size() {
+		return polygonCount;
+	}
+
+	/**
+	 * Returns the colour of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The colour, null if the type was not recognised
+	 */
+	public Color getTexture(int polygon) {
+		int colour = headers.get(polygon * HEADER_SIZE + COLOUR);
+		return colour < 0 ? null : palette.get(colour);
+	}
+
+	/**
+	 * Returns the end level of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The end level
+	 */
+	public int getLevel(int polygon) {
+		return headers.get(polygon * HEADER_SIZE + LEVEL);
+	}
+
+	/**
+	 * Returns the number of rings in the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The number of rings, the first being the outline
+	 */
+	public int getRingCount(int polygon) {
+		return headers.get(polygon * HEADER_SIZE + RING_COUNT);
+	}
+
+	/**
+	 * Returns the index of the first point of a ring of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @param ring
+	 *            The index of the ring within the polygon
+	 * @return The index of the ring's first point
+	 */
+	public int getRingStart(int polygon, int ring) {
+		return rings.get(headers.get(polygon * HEADER_SIZE + FIRST_RING)
+				+ ring);
+	}
+
+	/**
+	 * Returns the index after the last point of a ring of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @param ring
+	 *            The index of the ring within the polygon
+	 * @return The index after the ring's last point
+	 */
+	public int getRingEnd(int polygon, int ring) {
+		int next = headers.get(polygon * HEADER_SIZE + FIRST_RING) + ring + 1;
+		return next < ringCount ? rings.get(next) : pointCount;
+	}
+
+	/**
+	 * Returns the x position of a point
+	 *
+	 * @param point
+	 *            The index of the point
+	 * @return The x coordinate
+	 */
+	public double getX(int point) {
+		return originX + points.get(point * 2);
+	}
+
+	/**
+	 * Returns the y position of a point
+	 *
+	 * @param point
+	 *            The index of the point
+	 * @return The y coordinate
+	 */
+	public double getY(int point) {
+		return originY + points.get(point * 2 + 1);
+	}
+
+	/**
+	 * Returns the smallest x position of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The left of the polygon's bounds
+	 */
+	public double getMinX(int polygon) {
+		return originX + getBound(polygon * HEADER_SIZE + MIN_X);
+	}
+
+	/**
+	 * Returns the smallest y position of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The top of the polygon's bounds
+	 */
+	public double getMinY(int polygon) {
+		return originY + getBound(polygon * HEADER_SIZE + MIN_Y);
+	}
+
+	/**
+	 * Returns the largest x position of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The right of the polygon's bounds
+	 */
+	public double getMaxX(int polygon) {
+		return originX + getBound(polygon * HEADER_SIZE + MAX_X);
+	}
+
+	/**
+	 * Returns the largest y position of the polygon
+	 *
+	 * @param polygon
+	 *            The index of the polygon
+	 * @return The bottom of the polygon's bounds
+	 */
+	public double getMaxY(int polygon) {
+		return originY + getBound(polygon * HEADER_SIZE + MAX_Y);
+	}
+
+	/**
+	 * Finds the polygons whose bounds overlap the given area. The polygons
+	 * must all have been added before the first search
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return The indices of the polygons, in increasing order
+	 */
+	public int[] search(double minX, double minY, double maxX, double maxY) {
+		return prepare().search(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Builds the search index and levels of detail of the polygons, if they
+	 * have not been built yet. This is done on the first search or draw, but
+	 * can be done sooner so the first draw is not slowed by it. The polygons
+	 * must all have been added
+	 *
+	 * @return The search index
+	 */
+	public synchronized PackedRTree prepare() {
+		if (index != null) {
+			return index;
+		}
+		double[] left = new double[polygonCount];
+		double[] top = new double[polygonCount];
+		double[] right = new double[polygonCount];
+		double[] bottom = new double[polygonCount];
+		for (int i = 0; i < polygonCount; i++) {
+			left[i] = getMinX(i);
+			top[i] = getMinY(i);
+			right[i] = getMaxX(i);
+			bottom[i] = getMaxY(i);
+		}
+
+		// Each ring is simplified keeping the points it passes through more
+		// than once, which join its parts
+		byte[] pointBands = new byte[pointCount];
+		double[] ring = new double[256];
+		byte[] ringBands = new byte[128];
+		for (int r = 0; r < ringCount; r++) {
+			int start = rings.get(r);
+			int end = r + 1 < ringCount ? rings.get(r + 1) : pointCount;
+			if (end - start > ringBands.length) {
+				ring = new double[(end - start) * 2];
+				ringBands = new byte[end - start];
+			}
+			for (int i = start; i < end; i++) {
+				ring[(i - start) * 2] = points.get(i * 2);
+				ring[(i - start) * 2 + 1] = points.get(i * 2 + 1);
+			}
+			LevelOfDetail.simplifyRing(ring, 0, end - start, ringBands);
+			System.arraycopy(ringBands, 0, pointBands, start, end - start);
+		}
+		bands = ByteBuffer.allocateDirect(Math.max(pointCount, 1));
+		bands.put(pointBands, 0, pointCount);
+
+		index = new PackedRTree(left, top, right, bottom, polygonCount);
+		return index;
+	}
+
+	/**
+	 * Fills the outline of the polygon
+	 *
+	 * @param g
+	 *            The graphics object to be drawn to
+	 * @param polygon
+	 *            The index of the polygon
+	 * @param offsetX
+	 *            The current offest on the x-axis
+	 * @param offsetY
+	 *            The current offest on the y-axis
+	 * @param zoom
+	 *            The current zoom level
+	 */
+	public void draw(Graphics2D g, int polygon, double offsetX,
+			double offsetY, double zoom) {
+		if (index == null) {
+			prepare();
+		}
+		int band = LevelOfDetail.band(zoom);
+		int[][] coordinates = scratch.get();
+		int[] xs = coordinates[0];
+		int[] ys = coordinates[1];
+		int count = 0;
+		if (getRingCount(polygon) > 0) {
+			int start = getRingStart(polygon, 0);
+			int end = getRingEnd(polygon, 0);
+			if (end - start > xs.length) {
+				xs = coordinates[0] = new int[end - start];
+				ys = coordinates[1] = new int[end - start];
+			}
+			// Points not needed at this zoom are left out
+			for (int i = start; i < end; i++) {
+				if (bands.get(i) <= band) {
+					xs[count] = (int) ((getX(i) + offsetX) * zoom);
+					ys[count] = (int) ((getY(i) + offsetY) * zoom);
+					count++;
+				}
+			}
+		}
+		g.setColor(getTexture(polygon));
+		g.fillPolygon(xs, ys, count);
+	}
+
+	/**
+	 * Returns the number of bytes held outside the heap
+	 *
+	 * @return The capacity of the direct buffers in bytes
+	 */
+	public long getOffHeapSize() {
+		return 4L * (headers.capacity() + rings.capacity() + points
+				.capacity()) + (bands == null ? 0 : bands.capacity());
+	}
+
+	/**
+	 * Reads a bound of a polygon from its header
+	 *
+	 * @param field
+	 *            The index of the bound in the headers
+	 * @return The bound relative to the origin
+	 */
+	private float getBound(int field) {
+		return Float.intBitsToFloat(headers.get(field));
+	}
+
+	/**
+	 * Writes a bound of a polygon into its header
+	 *
+	 * @param field
+	 *            The index of the bound in the headers
+	 * @param value
+	 *            The bound relative to the origin
+	 */
+	private void setBound(int field, float value) {
+		headers.put(field, Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * Allocates a direct buffer in the platform's byte order
+	 *
+	 * @param values
+	 *            The number of ints or floats the buffer holds
+	 * @return The buffer
+	 */
+	private static ByteBuffer allocate(int values) {
+		return ByteBuffer.allocateDirect(values * 4).order(
+				ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Copies an int buffer into a larger direct buffer
+	 *
+	 * @param buffer
+	 *            The buffer to be copied
+	 * @param capacity
+	 *            The number of ints the new buffer holds
+	 * @return The new buffer
+	 */
+	private static IntBuffer grow(IntBuffer buffer, int capacity) {
+		IntBuffer grown = allocate(capacity).asIntBuffer();
+		buffer.clear();
+		grown.put(buffer);
+		return grown;
+	}
+
+	/**
+	 * Copies a float buffer into a larger direct buffer
+	 *
+	 * @param buffer
+	 *            The buffer to be copied
+	 * @param capacity
+	 *            The number of floats the new buffer holds
+	 * @return The new buffer
+	 */
+	private static FloatBuffer grow(FloatBuffer buffer, int capacity) {
+		FloatBuffer grown = allocate(capacity).asFloatBuffer();
+		buffer.clear();
+		grown.put(buffer);
+		return grown;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import util.NodeArray;
+import util.StringDictionary;
 
 /**
  * A Road Object containing information on the Map Road aswell as segments of
@@ -18,9 +19,14 @@ public class Road implements Comparable<Road> {
 
 	// Road information
 	private int ID, type, speed;
-	private String roadName, city;
 	private boolean oneway, roadclass, notforcar, notforpede, notforbicy;
 
+	// Codes of the road's name, city and "name, city" display name in the
+	// map's dictionary. The display name is only encoded once it is asked for
+	private StringDictionary names;
+	private int roadName, city;
+	private volatile int displayName = -1;
+
 	// Segments that make up the Road
 	private List<Segment> segments = new ArrayList<Segment>();
 
@@ -30,6 +36,8 @@ public class Road implements Comparable<Road> {
 	/**
 	 * Construct a new road with the given information
 	 *
+	 * @param names
+	 *            The dictionary the road's names are stored in
 	 * @param ID
 	 *            The Roads ID
 	 * @param type
@@ -51,13 +59,14 @@ public class Road implements Comparable<Road> {
 	 * @param notforbicy
 	 *            Whether the road is for bikes or not
 	 */
-	public Road(int ID, int type, String label, String city, int oneway,
-			int speed, int roadclass, int notforcar, int notforpede,
-			int notforbicy) {
+	public Road(StringDictionary names, int ID, int type, String label,
+			String city, int oneway, int speed, int roadclass, int notforcar,
+			int notforpede, int notforbicy) {
+		this.names = names;
 		this.ID = ID;
 		this.type = type;
-		this.roadName = label;
-		this.city = city;
+		this.roadName = names.add(label);
+		this.city = names.add(city);
 		this.oneway = oneway == 1;
 		this.speed = speed;
 		this.roadclass = roadclass == 1;
@@ -87,7 +96,7 @@ public class Road implements Comparable<Road> {
 	 *            The segment to be added
 	 */
 	public void addSegment(Segment s) {
-		s.addRoadName(this.getName());
+		s.setRoad(this);
 		segments.add(s);
 	}
 
@@ -106,15 +115,21 @@ public class Road implements Comparable<Road> {
 	 *            The current zoom level of the map
 	 */
 	public void draw(Graphics2D g, double offsetX, double offsetY, double zoom) {
-		g.setColor(Color.blue);
-		if (this.selected) {
-			g.setColor(Color.red);
-		}
+		g.setColor(getColour());
 		for (Segment s : segments) {
 			s.draw(g, offsetX, offsetY, zoom);
 		}
 	}
 
+	/**
+	 * Returns the colour the road's segments are drawn in
+	 *
+	 * @return Red if the road is selected, else blue
+	 */
+	Color getColour() {
+		return selected ? Color.red : Color.blue;
+	}
+
 	/**
 	 * Passes the collection of nodes so that the segments can identify the
 	 * attached nodes and connect with them
@@ -135,7 +150,10 @@ public class Road implements Comparable<Road> {
 	 * @return The address of the street
 	 */
 	public String getName() {
-		return this.roadName + ", " + this.city;
+		if (displayName < 0) {
+			displayName = names.add(getRoadName() + ", " + getCity());
+		}
+		return names.get(displayName);
 	}
 
 	/**
@@ -178,20 +196,76 @@ public class Road implements Comparable<Road> {
 	 * @return Road details String
 	 */
 	public String getDetails() {
-		String details = this.roadName + ", " + city;
+		StringBuilder details = new StringBuilder(getName());
 		if (oneway) {
-			details += "\nOneway Road";
+			details.append("\nOneway Road");
 		}
 		if (notforcar) {
-			details += "\nNo Car Access";
+			details.append("\nNo Car Access");
 		}
 		if (notforbicy) {
-			details += "\nNo Bike Access";
+			details.append("\nNo Bike Access");
 		}
 		if (notforpede) {
-			details += "\nNo Pedestrian Access";
+			details.append("\nNo Pedestrian Access");
 		}
-		return details;
+		return details.toString();
+	}
+
+	/**
+	 * Returns the segments that make up the road
+	 *
+	 * @return The road segments
+	 */
+	List<Segment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Returns the integer representing the type of road
+	 *
+	 * @return The road type
+	 */
+	int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the name of the road without the city
+	 *
+	 * @return The road name
+	 */
+	String getRoadName() {
+		return names.get(roadName);
+	}
+
+	/**
+	 * Returns the city the road is contained in
+	 *
+	 * @return The city name
+	 */
+	String getCity() {
+		return names.get(city);
+	}
+
+	/**
+	 * Returns the speed limit category the road was constructed with
+	 *
+	 * @return The speed category
+	 */
+	int getSpeedCategory() {
+		return speed;
+	}
+
+	/**
+	 * Returns the road class flag and access restrictions as the integer
+	 * values the road was constructed with
+	 *
+	 * @return {roadclass, notforcar, notforpede, notforbicy}
+	 */
+	int[] getRestrictions() {
+		return new int[] { roadclass ? 1 : 0, notforcar ? 1 : 0,
+				notforpede ? 1 : 0, notforbicy ? 1 : 0 };
 	}
 
 	public boolean isOneWay(){
@@ -0,0 +1,500 @@
+package core;
+
+import java.util.Arrays;
+
+import util.NodeArray;
+import util.RoadArray;
+
+/**
+ * The road network as a compressed sparse row adjacency. The edges leaving
+ * each node are stored together in the edge arrays between the node's offset
+ * and the next node's offset, so routing and articulation analysis can walk
+ * the graph using node indices alone. Each segment gives an edge in both
+ * directions, in the same order the segments are connected to the nodes
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class RoadGraph {
+
+	private NodeArray nodes;
+
+	// The segments of every road, indexed by the edges
+	private Segment[] segments;
+
+	// offsets[i] to offsets[i + 1] are the edges leaving node i
+	private int[] offsets;
+	private int[] targets;
+	private int[] edgeSegments;
+	private double[] lengths;
+	private int[] speeds;
+
+	// True if the edge travels against the direction of a one way road
+	private boolean[] against;
+
+	// Reused between searches so traversing the graph allocates nothing
+	private int[] visited, entryNode, entryPrev, entryEdge, entryDistance,
+			heap;
+	private int visitStamp;
+	private int[] depth, frameNode, frameEdge, frameReach;
+	private boolean[] articulation;
+
+	/**
+	 * Builds the adjacency of the roads' segments, which must already be
+	 * connected to the nodes
+	 *
+	 * @param nodes
+	 *            The sorted collection of nodes
+	 * @param roads
+	 *            The collection of connected roads
+	 */
+	public RoadGraph(NodeArray nodes, RoadArray roads) {
+		this.nodes = nodes;
+		segments = collectSegments(roads);
+		offsets = new int[nodes.size() + 1];
+		int edgeCount = 0;
+		for (Segment s : segments) {
+			if (s.getNode1Index() >= 0 && s.getNode2Index() >= 0) {
+				offsets[s.getNode1Index() + 1]++;
+				offsets[s.getNode2Index() + 1]++;
+				edgeCount += 2;
+			}
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		targets = new int[edgeCount];
+		edgeSegments = new int[edgeCount];
+		lengths = new double[edgeCount];
+		speeds = new int[edgeCount];
+		against = new boolean[edgeCount];
+		int[] next = Arrays.copyOf(offsets, nodes.size());
+		for (int i = 0; i < segments.length; i++) {
+			Segment s = segments[i];
+			int node1 = s.getNode1Index();
+			int node2 = s.getNode2Index();
+			if (node1 >= 0 && node2 >= 0) {
+				addEdge(next[node1]++, node2, i, false);
+				addEdge(next[node2]++, node1, i, s.isOneWay() && node1 != node2);
+			}
+		}
+	}
+
+	/**
+	 * Constructs the graph from the adjacency read from a snapshot, which
+	 * must have been taken of a graph of the same nodes and roads
+	 *
+	 * @param nodes
+	 *            The sorted collection of nodes
+	 * @param roads
+	 *            The collection of connected roads
+	 * @param offsets
+	 *            The first edge of each node, followed by the edge count
+	 * @param targets
+	 *            The node each edge leads to
+	 * @param edgeSegments
+	 *            The index of the segment each edge follows
+	 * @param against
+	 *            Whether each edge travels against a one way road
+	 */
+	RoadGraph(NodeArray nodes, RoadArray roads, int[] offsets, int[] targets,
+			int[] edgeSegments, boolean[] against) {
+		this.nodes = nodes;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.edgeSegments = edgeSegments;
+		this.against = against;
+		segments = collectSegments(roads);
+		lengths = new double[targets.length];
+		speeds = new int[targets.length];
+		for (int edge = 0; edge < targets.length; edge++) {
+			lengths[edge] = segments[edgeSegments[edge]].getAccurLength();
+			speeds[edge] = segments[edgeSegments[edge]].getSpeed();
+		}
+	}
+
+	/**
+	 * Lists the segments of every road in order, which is the order the edges
+	 * index them by
+	 *
+	 * @param roads
+	 *            The collection of roads
+	 * @return The segments
+	 */
+	private static Segment[] collectSegments(RoadArray roads) {
+		int count = 0;
+		for (Road r : roads) {
+			count += r.getSegments().size();
+		}
+		Segment[] segments = new Segment[count];
+		count = 0;
+		for (Road r : roads) {
+			for (Segment s : r.getSegments()) {
+				segments[count++] = s;
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Fills in the details of an edge
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @param target
+	 *            The node the edge leads to
+	 * @param segment
+	 *            The index of the segment the edge follows
+	 * @param oneway
+	 *            True if the edge travels against a one way road
+	 */
+	private void addEdge(int edge, int target, int segment, boolean oneway) {
+		targets[edge] = target;
+		edgeSegments[edge] = segment;
+		lengths[edge] = segments[segment].getAccurLength();
+		speeds[edge] = segments[segment].getSpeed();
+		against[edge] = oneway;
+	}
+
+	/**
+	 * Returns the number of nodes in the graph
+	 *
+	 * @return The node count
+	 */
+	public int getNodeCount() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Returns the index of the first edge leaving the node
+	 *
+	 * @param node
+	 *            The index of the node
+	 * @return The first edge index
+	 */
+	public int getFirstEdge(int node) {
+		return offsets[node];
+	}
+
+	/**
+	 * Returns the index after the last edge leaving the node
+	 *
+	 * @param node
+	 *            The index of the node
+	 * @return The end edge index
+	 */
+	public int getEndEdge(int node) {
+		return offsets[node + 1];
+	}
+
+	/**
+	 * Returns the node the edge leads to
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return The index of the target node
+	 */
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	/**
+	 * Returns the length of the road along the edge
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return The length of the segment
+	 */
+	public double getLength(int edge) {
+		return lengths[edge];
+	}
+
+	/**
+	 * Returns the speed limit along the edge
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return The speed of the segment
+	 */
+	public int getSpeed(int edge) {
+		return speeds[edge];
+	}
+
+	/**
+	 * Returns whether the edge travels against the direction of a one way
+	 * road
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return True if the edge can not be driven
+	 */
+	public boolean isAgainstOneWay(int edge) {
+		return against[edge];
+	}
+
+	/**
+	 * Returns the segment the edge follows
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return The segment
+	 */
+	public Segment getSegment(int edge) {
+		return segments[edgeSegments[edge]];
+	}
+
+	/**
+	 * Returns the number of edges in the graph, two for each segment joining
+	 * known nodes
+	 *
+	 * @return The edge count
+	 */
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * Returns the index of the segment the edge follows, counting the
+	 * segments of every road in order
+	 *
+	 * @param edge
+	 *            The index of the edge
+	 * @return The segment index
+	 */
+	public int getSegmentIndex(int edge) {
+		return edgeSegments[edge];
+	}
+
+	/**
+	 * Finds a path between two nodes, always expanding the node on the fringe
+	 * that is closest to the destination in a straight line and only driving
+	 * one way roads in their direction
+	 *
+	 * @param source
+	 *            The index of the node to start from
+	 * @param destination
+	 *            The index of the node to find
+	 * @return The edges of the path from the destination back to the source,
+	 *         or an empty array if there is no path
+	 */
+	public int[] route(int source, int destination) {
+		if (entryNode == null) {
+			visited = new int[getNodeCount()];
+			entryNode = new int[targets.length + 1];
+			entryPrev = new int[targets.length + 1];
+			entryEdge = new int[targets.length + 1];
+			entryDistance = new int[targets.length + 1];
+			heap = new int[targets.length + 1];
+		}
+		if (++visitStamp == 0) {
+			Arrays.fill(visited, 0);
+			visitStamp = 1;
+		}
+		int entries = 0;
+		int heapSize = 0;
+		entryNode[0] = source;
+		entryPrev[0] = -1;
+		entryEdge[0] = -1;
+		entryDistance[0] = distance(source, destination);
+		heap[heapSize++] = entries++;
+
+		while (heapSize > 0) {
+			int working = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heapSize);
+			int node = entryNode[working];
+			if (visited[node] == visitStamp) {
+				continue;
+			}
+			visited[node] = visitStamp;
+			if (node == destination) {
+				int length = 0;
+				for (int e = working; entryEdge[e] >= 0; e = entryPrev[e]) {
+					length++;
+				}
+				int[] path = new int[length];
+				length = 0;
+				for (int e = working; entryEdge[e] >= 0; e = entryPrev[e]) {
+					path[length++] = entryEdge[e];
+				}
+				return path;
+			}
+			for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+				int target = targets[e];
+				if (!against[e] && visited[target] != visitStamp) {
+					entryNode[entries] = target;
+					entryPrev[entries] = working;
+					entryEdge[entries] = e;
+					entryDistance[entries] = distance(target, destination);
+					heap[heapSize] = entries++;
+					siftUp(heapSize++);
+				}
+			}
+		}
+		return new int[0];
+	}
+
+	/**
+	 * Returns the straight line distance between two nodes, measured between
+	 * their whole number positions as the fringe has always been ordered
+	 *
+	 * @param from
+	 *            The index of a node
+	 * @param to
+	 *            The index of a node
+	 * @return The truncated distance
+	 */
+	private int distance(int from, int to) {
+		double dx = (int) nodes.getX(from) - (int) nodes.getX(to);
+		double dy = (int) nodes.getY(from) - (int) nodes.getY(to);
+		return (int) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Checks whether fringe entry a should be expanded before entry b. Ties
+	 * go to the entry added first
+	 *
+	 * @param a
+	 *            The index of a fringe entry
+	 * @param b
+	 *            The index of a fringe entry
+	 * @return True if a comes first
+	 */
+	private boolean before(int a, int b) {
+		return entryDistance[a] < entryDistance[b]
+				|| (entryDistance[a] == entryDistance[b] && a < b);
+	}
+
+	/**
+	 * Moves the entry at the given heap position up to its place
+	 *
+	 * @param i
+	 *            The position in the heap
+	 */
+	private void siftUp(int i) {
+		int entry = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(entry, heap[parent])) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = entry;
+	}
+
+	/**
+	 * Moves the entry at the top of the heap down to its place
+	 *
+	 * @param size
+	 *            The number of entries in the heap
+	 */
+	private void siftDown(int size) {
+		if (size == 0) {
+			return;
+		}
+		int entry = heap[0];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], entry)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = entry;
+	}
+
+	/**
+	 * Finds the articulation points of every component of the graph, starting
+	 * with the component containing the given node. The search keeps its own
+	 * stack so components of any size can be searched
+	 *
+	 * @param start
+	 *            The index of the node to start from
+	 * @return The indices of the articulation points
+	 */
+	public int[] getArticulations(int start) {
+		int n = getNodeCount();
+		if (depth == null) {
+			depth = new int[n];
+			frameNode = new int[n];
+			frameEdge = new int[n];
+			frameReach = new int[n];
+			articulation = new boolean[n];
+		}
+		Arrays.fill(depth, Integer.MAX_VALUE);
+		Arrays.fill(articulation, false);
+		int count = search(start);
+		for (int i = 0; i < n; i++) {
+			if (depth[i] == Integer.MAX_VALUE) {
+				count += search(i);
+			}
+		}
+		int[] points = new int[count];
+		count = 0;
+		for (int i = 0; i < n; i++) {
+			if (articulation[i]) {
+				points[count++] = i;
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Searches the component containing the root depth first, marking the
+	 * nodes whose children can not reach above them without passing through
+	 * them
+	 *
+	 * @param root
+	 *            The index of the node to start from
+	 * @return The number of newly marked articulation points
+	 */
+	private int search(int root) {
+		int count = 0;
+		int top = 0;
+		frameNode[0] = root;
+		frameEdge[0] = offsets[root];
+		frameReach[0] = 0;
+		depth[root] = 0;
+		while (top >= 0) {
+			int node = frameNode[top];
+			int parent = top == 0 ? root : frameNode[top - 1];
+			if (frameEdge[top] < offsets[node + 1]) {
+				int child = targets[frameEdge[top]++];
+				if (child == parent) {
+					continue;
+				}
+				if (depth[child] < Integer.MAX_VALUE) {
+					frameReach[top] = Math.min(frameReach[top], depth[child]);
+				} else {
+					top++;
+					frameNode[top] = child;
+					frameEdge[top] = offsets[child];
+					frameReach[top] = top;
+					depth[child] = top;
+				}
+			} else {
+				if (top > 0) {
+					if (frameReach[top] >= depth[parent] && !articulation[parent]) {
+						articulation[parent] = true;
+						count++;
+					}
+					frameReach[top - 1] = Math.min(frameReach[top - 1],
+							frameReach[top]);
+				}
+				top--;
+			}
+		}
+		return count;
+	}
+}
@@ -3,10 +3,9 @@ package core;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Path2D;
-import java.util.ArrayList;
-import java.util.List;
 
-import util.DoublePoint;
+import util.CoordinateBuffer;
+import util.LevelOfDetail;
 import util.NodeArray;
 
 /**
@@ -18,23 +17,32 @@ import util.NodeArray;
 public class Segment {
 
 	// Segment properties
+	private int roadID;
 	private double length;
 	private int speed;
-	private String roadName = "";
+	private Road road;
 	private boolean selected = false;
 	private boolean oneway = false;
 
-	// The end nodes of the segment
+	// The end nodes of the segment, as positions in the node collection
 	private int node1ID, node2ID;
-	private Node node1, node2;
+	private int node1 = -1, node2 = -1;
+	private NodeArray nodes;
 
-	// The list of coordinates for the segment
-	private List<DoublePoint> points = new ArrayList<DoublePoint>();
+	// The coordinates of the segment, a run of points in a buffer that is
+	// shared with the other segments of the map once the segment is packed
+	private CoordinateBuffer points;
+	private int firstPoint, pointCount;
+
+	// How close in pixels a click must be to the segment to be on it
+	static final int HIT_TOLERANCE = 5;
 
 	/**
 	 * Constructs a new segment with the given length and the ID's of the end
 	 * nodes
 	 *
+	 * @param roadID
+	 *            The ID of the road the segment belongs to
 	 * @param length
 	 *            The length of the segment of road
 	 * @param nodeID1
@@ -42,7 +50,8 @@ public class Segment {
 	 * @param nodeID2
 	 *            The ID of a end node
 	 */
-	public Segment(double length, int nodeID1, int nodeID2, boolean oneway, int speed) {
+	public Segment(int roadID, double length, int nodeID1, int nodeID2, boolean oneway, int speed) {
+		this.roadID = roadID;
 		this.length = length;
 		this.node1ID = nodeID1;
 		this.node2ID = nodeID2;
@@ -59,17 +68,79 @@ public class Segment {
 	 *            The y position of the point
 	 */
 	public void addPoint(double x, double y) {
-		points.add(new DoublePoint(x, y));
+		if (points == null) {
+			points = new CoordinateBuffer(4);
+		}
+		points.add(x, y);
+		pointCount++;
 	}
 
 	/**
-	 * Sets the name of the road the segment belongs to
+	 * Moves the coordinates of the segment onto the end of the shared buffer
 	 *
-	 * @param name
-	 *            The name to be set
+	 * @param buffer
+	 *            The buffer holding the coordinates of every segment
 	 */
-	public void addRoadName(String name) {
-		roadName = name;
+	public void pack(CoordinateBuffer buffer) {
+		if (points != buffer && pointCount > 0) {
+			setPoints(buffer, buffer.addAll(points, firstPoint, pointCount),
+					pointCount);
+		}
+	}
+
+	/**
+	 * Sets the coordinates of the segment to a run of points already in a
+	 * buffer
+	 *
+	 * @param buffer
+	 *            The buffer holding the points
+	 * @param first
+	 *            The index of the first point of the segment
+	 * @param count
+	 *            The number of points in the segment
+	 */
+	void setPoints(CoordinateBuffer buffer, int first, int count) {
+		points = buffer;
+		firstPoint = first;
+		pointCount = count;
+	}
+
+	/**
+	 * Works out which of the segment's points can be left out when drawing
+	 * at low zoom levels. Called once the points are in their final buffer
+	 */
+	void simplify() {
+		if (pointCount > 0) {
+			points.simplify(firstPoint, pointCount);
+		}
+	}
+
+	/**
+	 * Sets the road the segment belongs to
+	 *
+	 * @param road
+	 *            The road the segment was added to
+	 */
+	void setRoad(Road road) {
+		this.road = road;
+	}
+
+	/**
+	 * Returns the road the segment belongs to
+	 *
+	 * @return The road, null if the segment has not been added to one
+	 */
+	Road getRoad() {
+		return road;
+	}
+
+	/**
+	 * Returns the ID of the road the segment belongs to
+	 *
+	 * @return The road ID
+	 */
+	public int getRoadID() {
+		return roadID;
 	}
 
 	/**
@@ -78,7 +149,17 @@ public class Segment {
 	 * @return The name of the road
 	 */
 	public String getName() {
-		return roadName;
+		return road == null ? "" : road.getName();
+	}
+
+	/**
+	 * Returns whether the segment can only be driven from its first node to
+	 * its second
+	 *
+	 * @return True if one way
+	 */
+	boolean isOneWay() {
+		return oneway;
 	}
 
 	/**
@@ -106,17 +187,130 @@ public class Segment {
 		if (selected) {
 			g.setColor(Color.red);
 		}
-		DoublePoint prevPoint = points.get(0);
-		for (int i = 1; i < points.size(); i++) {
-			g.drawLine((int) ((points.get(i).getX() + offsetX) * zoom),
-					(int) ((points.get(i).getY() + offsetY) * zoom),
-					(int) ((prevPoint.getX() + offsetX) * zoom),
-					(int) ((prevPoint.getY() + offsetY) * zoom));
-			prevPoint = points.get(i);
-		}
+		Path2D lines = new Path2D.Float();
+		appendLines(lines, offsetX, offsetY, zoom);
+		g.draw(lines);
 		g.setColor(temp);
 	}
 
+	/**
+	 * Adds the lines of the segment to a path, so segments drawn in the same
+	 * colour can be drawn together in one call. Points not needed at this
+	 * zoom are skipped, joining their neighbours instead, and the first point
+	 * is always kept. The lines run from the last point back, the way each
+	 * piece has always been drawn
+	 *
+	 * @param path
+	 *            The path the lines are added to
+	 * @param offsetX
+	 *            The current offset on the x-axis
+	 * @param offsetY
+	 *            The current offset on the y-axis
+	 * @param zoom
+	 *            The current zoom factor of the map
+	 */
+	void appendLines(Path2D path, double offsetX, double offsetY, double zoom) {
+		int band = LevelOfDetail.band(zoom);
+		boolean started = false;
+		for (int i = firstPoint + pointCount - 1; i >= firstPoint; i--) {
+			if (i == firstPoint || points.getBand(i) <= band) {
+				int x = (int) ((points.getX(i) + offsetX) * zoom);
+				int y = (int) ((points.getY(i) + offsetY) * zoom);
+				if (started) {
+					path.lineTo(x, y);
+				} else {
+					path.moveTo(x, y);
+					started = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of coordinates along the segment
+	 *
+	 * @return The number of points
+	 */
+	int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * Returns the x position of a coordinate along the segment
+	 *
+	 * @param i
+	 *            The index of the point within the segment
+	 * @return The x coordinate
+	 */
+	double getPointX(int i) {
+		return points.getX(firstPoint + i);
+	}
+
+	/**
+	 * Returns the y position of a coordinate along the segment
+	 *
+	 * @param i
+	 *            The index of the point within the segment
+	 * @return The y coordinate
+	 */
+	double getPointY(int i) {
+		return points.getY(firstPoint + i);
+	}
+
+	/**
+	 * Returns the ID of the node at the start of the segment
+	 *
+	 * @return The first end node ID
+	 */
+	int getNode1ID() {
+		return node1ID;
+	}
+
+	/**
+	 * Returns the ID of the node at the end of the segment
+	 *
+	 * @return The second end node ID
+	 */
+	int getNode2ID() {
+		return node2ID;
+	}
+
+	/**
+	 * Returns the node at the start of the segment
+	 *
+	 * @return The first end node, null if not connected
+	 */
+	Node getNode1() {
+		return node1 < 0 ? null : nodes.getIndex(node1);
+	}
+
+	/**
+	 * Returns the node at the end of the segment
+	 *
+	 * @return The second end node, null if not connected
+	 */
+	Node getNode2() {
+		return node2 < 0 ? null : nodes.getIndex(node2);
+	}
+
+	/**
+	 * Returns the position of the start node in the node collection
+	 *
+	 * @return The index of the first end node, -1 if not connected
+	 */
+	int getNode1Index() {
+		return node1;
+	}
+
+	/**
+	 * Returns the position of the end node in the node collection
+	 *
+	 * @return The index of the second end node, -1 if not connected
+	 */
+	int getNode2Index() {
+		return node2;
+	}
+
 	/**
 	 * Sets whether or not the current segment is a part of the shortest path
 	 *
@@ -135,22 +329,43 @@ public class Segment {
 	 *            The Collection of nodes
 	 */
 	public void connect(NodeArray nodes) {
-		node1 = nodes.get(node1ID);
-		node2 = nodes.get(node2ID);
-		if (node1 != null) {
-			node1.connect(this);
-		} else {
+		int index1 = nodes.indexOf(node1ID);
+		int index2 = nodes.indexOf(node2ID);
+		if (index1 < 0) {
 			System.err.println(node1ID + " does not exist");
 		}
-		if (node2 != null) {
-			node2.connect(this);
-		} else {
+		if (index2 < 0) {
 			System.err.println(node2ID + " does not exist");
 		}
+		connect(nodes, index1, index2);
 	}
 
 	/**
-	 * Checks if the segment has been clicked on
+	 * Connects the segment with the end nodes at the given positions of the
+	 * collection, which have already been resolved from the stored node ID's
+	 *
+	 * @param nodes
+	 *            The Collection of nodes
+	 * @param index1
+	 *            The position of the start node, -1 if it does not exist
+	 * @param index2
+	 *            The position of the end node, -1 if it does not exist
+	 */
+	public void connect(NodeArray nodes, int index1, int index2) {
+		this.nodes = nodes;
+		this.node1 = index1;
+		this.node2 = index2;
+		if (index1 >= 0) {
+			nodes.connect(index1, this);
+		}
+		if (index2 >= 0) {
+			nodes.connect(index2, this);
+		}
+	}
+
+	/**
+	 * Checks if the segment has been clicked on, which is when the click is
+	 * within a few pixels of the line through the segment's points
 	 *
 	 * @param x
 	 *            MouseX coordinate
@@ -165,16 +380,110 @@ public class Segment {
 	 * @return True if on the segment, false is not
 	 */
 	public boolean on(int x, int y, double offsetX, double offsetY, double zoom) {
-		Path2D.Double path = new Path2D.Double();
-		path.moveTo((points.get(0).getX() + offsetX) * zoom, (points.get(0)
-				.getY() + offsetY) * zoom);
-		for (DoublePoint i : points) {
-			path.lineTo((i.getX() + offsetX) * zoom, (i.getY() + offsetY)
-					* zoom);
-			path.moveTo((i.getX() + offsetX) * zoom, (i.getY() + offsetY)
-					* zoom);
+		return distance(x / zoom - offsetX, y / zoom - offsetY) * zoom
+				<= HIT_TOLERANCE;
+	}
+
+	/**
+	 * Returns the shortest distance from a position to the line through the
+	 * segment's points
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @return The distance, infinite if the segment has no points
+	 */
+	double distance(double x, double y) {
+		if (pointCount == 1) {
+			return Math.hypot(x - getPointX(0), y - getPointY(0));
+		}
+		double closest = Double.POSITIVE_INFINITY;
+		int end = firstPoint + pointCount;
+		for (int i = firstPoint + 1; i < end; i++) {
+			double x1 = points.getX(i - 1);
+			double y1 = points.getY(i - 1);
+			double dx = points.getX(i) - x1;
+			double dy = points.getY(i) - y1;
+
+			// The fraction along the line of the point closest to the position
+			double length = dx * dx + dy * dy;
+			double along = length == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy)
+					/ length;
+			along = Math.max(0, Math.min(1, along));
+			double ex = x - x1 - along * dx;
+			double ey = y - y1 - along * dy;
+			closest = Math.min(closest, ex * ex + ey * ey);
+		}
+		return Math.sqrt(closest);
+	}
+
+	/**
+	 * Checks whether any part of the line through the segment's points lies
+	 * inside an area
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return True if the line touches the area
+	 */
+	boolean crosses(double minX, double minY, double maxX, double maxY) {
+		int end = firstPoint + pointCount;
+		for (int i = firstPoint; i < end; i++) {
+			double x = points.getX(i);
+			double y = points.getY(i);
+			if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+				return true;
+			}
+		}
+		double[] along = new double[2];
+		for (int i = firstPoint + 1; i < end; i++) {
+			// Clip the line between the points to the area, it crosses the
+			// area if anything is left
+			double x1 = points.getX(i - 1);
+			double y1 = points.getY(i - 1);
+			double dx = points.getX(i) - x1;
+			double dy = points.getY(i) - y1;
+			along[0] = 0;
+			along[1] = 1;
+			if (clip(-dx, x1 - minX, along) && clip(dx, maxX - x1, along)
+					&& clip(-dy, y1 - minY, along)
+					&& clip(dy, maxY - y1, along)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Narrows the part of a line inside an area to the side of one of the
+	 * area's edges
+	 *
+	 * @param towards
+	 *            How fast the line moves towards the edge's outside
+	 * @param room
+	 *            How far the start of the line is inside the edge
+	 * @param along
+	 *            The first and last fractions of the line still inside the
+	 *            area, narrowed in place
+	 * @return True if some of the line is still inside
+	 */
+	private static boolean clip(double towards, double room, double[] along) {
+		if (towards == 0) {
+			return room >= 0;
+		}
+		double t = room / towards;
+		if (towards < 0) {
+			along[0] = Math.max(along[0], t);
+		} else {
+			along[1] = Math.min(along[1], t);
 		}
-		return path.getBounds().contains(x, y);
+		return along[0] <= along[1];
 	}
 
 	/**
@@ -186,13 +495,16 @@ public class Segment {
 	 * @return
 	 */
 	public Node getOppositeNode(Node from, boolean directional) {
-		if (from == node1) {
-			return node2;
-		} else if (from == node2) {
+		int index = from == null ? -1 : from.getIndex();
+		if (index < 0) {
+			return null;
+		} else if (index == node1) {
+			return getNode2();
+		} else if (index == node2) {
 			if (oneway && directional) {
 				return null;
 			} else {
-				return node1;
+				return getNode1();
 			}
 		} else {
 			return null;
@@ -0,0 +1,159 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer of (x,y) coordinates packed into a single array of
+ * doubles. Shapes that share the buffer refer to their points by the index of
+ * their first point and the number of points
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class CoordinateBuffer {
+
+	// Alternating x and y values
+	private double[] values;
+	private int size;
+
+	// The zoom band each point is first drawn at, once worked out
+	private byte[] bands;
+
+	/**
+	 * Constructs an empty buffer
+	 */
+	public CoordinateBuffer() {
+		this(256);
+	}
+
+	/**
+	 * Constructs an empty buffer with room for the given number of points
+	 *
+	 * @param capacity
+	 *            The number of points expected
+	 */
+	public CoordinateBuffer(int capacity) {
+		values = new double[Math.max(capacity, 1) * 2];
+	}
+
+	/**
+	 * Adds a point to the end of the buffer
+	 *
+	 * @param x
+	 *            The x position of the point
+	 * @param y
+	 *            The y position of the point
+	 * @return The index of the point
+	 */
+	public int add(double x, double y) {
+		if (size * 2 == values.length) {
+			resize(size * 2);
+		}
+		values[size * 2] = x;
+		values[size * 2 + 1] = y;
+		return size++;
+	}
+
+	/**
+	 * Copies a run of points from another buffer onto the end of this one
+	 *
+	 * @param other
+	 *            The buffer holding the points
+	 * @param start
+	 *            The index of the first point to copy
+	 * @param count
+	 *            The number of points to copy
+	 * @return The index of the first copied point in this buffer
+	 */
+	public int addAll(CoordinateBuffer other, int start, int count) {
+		if ((size + count) * 2 > values.length) {
+			resize(Math.max(size * 2, size + count));
+		}
+		System.arraycopy(other.values, start * 2, values, size * 2, count * 2);
+		int first = size;
+		size += count;
+		return first;
+	}
+
+	/**
+	 * Returns the x position of the point at the given index
+	 *
+	 * @param index
+	 *            The index of the point
+	 * @return The x coordinate
+	 */
+	public double getX(int index) {
+		return values[index * 2];
+	}
+
+	/**
+	 * Returns the y position of the point at the given index
+	 *
+	 * @param index
+	 *            The index of the point
+	 * @return The y coordinate
+	 */
+	public double getY(int index) {
+		return values[index * 2 + 1];
+	}
+
+	/**
+	 * Works out the zoom band each point of a line is first needed at
+	 *
+	 * @param start
+	 *            The index of the line's first point
+	 * @param count
+	 *            The number of points in the line
+	 */
+	public void simplify(int start, int count) {
+		if (bands == null) {
+			bands = new byte[values.length / 2];
+		}
+		LevelOfDetail.simplify(values, start, count, bands);
+	}
+
+	/**
+	 * Returns the zoom band from which a point needs to be drawn
+	 *
+	 * @param index
+	 *            The index of the point
+	 * @return The band, 0 if the point has not been simplified
+	 */
+	public int getBand(int index) {
+		return bands == null ? 0 : bands[index];
+	}
+
+	/**
+	 * Returns the number of points in the buffer
+	 *
+	 * @return The number of points
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Releases any capacity beyond the points stored
+	 */
+	public void trim() {
+		if (size * 2 < values.length) {
+			resize(Math.max(size, 1));
+		}
+	}
+
+	/**
+	 * Moves the points into an array with room for the given number of
+	 * points
+	 *
+	 * @param capacity
+	 *            The new capacity
+	 */
+	private void resize(int capacity) {
+		double[] resized = new double[capacity * 2];
+		System.arraycopy(values, 0, resized, 0, size * 2);
+		values = resized;
+		if (bands != null) {
+			bands = Arrays.copyOf(bands, capacity);
+		}
+	}
+}
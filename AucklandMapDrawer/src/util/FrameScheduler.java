@@ -0,0 +1,252 @@
+package util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.swing.Timer;
+
+/**
+ * Limits drawing to a target frame rate. Requests for a new frame are
+ * collected until the next frame is due and then answered with a single
+ * frame, so a burst of mouse events only draws the state left by the last of
+ * them. The time taken by recent frames is recorded so stutter can be seen,
+ * along with the memory they allocate where the JVM can measure it. Only
+ * used on the event dispatch thread
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class FrameScheduler {
+
+	// Number of recent frame times kept
+	private static final int HISTORY = 120;
+
+	// Measures the memory allocated by a thread, null if the JVM can not
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+	private Runnable frame;
+	private int rate;
+	private long budget;
+	private Timer timer;
+
+	// Whether something has changed since the last frame
+	private boolean pending = false;
+
+	// Durations of recent frames in nanoseconds and the bytes they
+	// allocated, oldest overwritten first
+	private long[] times = new long[HISTORY];
+	private long[] allocated = new long[HISTORY];
+
+	// Statistics since the scheduler was made
+	private long frames, requests, slowFrames;
+
+	/**
+	 * Constructs a scheduler that is idle until a frame is requested
+	 *
+	 * @param rate
+	 *            The most frames to draw per second
+	 * @param frame
+	 *            Draws a frame
+	 */
+	public FrameScheduler(int rate, Runnable frame) {
+		this.rate = rate;
+		this.frame = frame;
+		budget = 1000000000L / rate;
+		timer = new Timer(1000 / rate, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				tick();
+			}
+		});
+		// The first frame after an idle spell is drawn once the events
+		// already queued have been handled, rather than a period later
+		timer.setInitialDelay(0);
+	}
+
+	/**
+	 * Asks for a frame to be drawn. Requests made before the next frame is
+	 * due are answered by that one frame
+	 */
+	public void requestFrame() {
+		requests++;
+		pending = true;
+		if (!timer.isRunning()) {
+			timer.start();
+		}
+	}
+
+	/**
+	 * Draws a frame straight away, answering any pending request, for when
+	 * the window has to be painted now
+	 */
+	public void frameNow() {
+		pending = false;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		frame.run();
+		long time = System.nanoTime() - start;
+		times[(int) (frames % HISTORY)] = time;
+		allocated[(int) (frames % HISTORY)] = bytes < 0 ? -1
+				: allocatedBytes() - bytes;
+		frames++;
+		if (time > budget) {
+			slowFrames++;
+		}
+	}
+
+	/**
+	 * Draws a frame if one has been requested, otherwise stops the timer
+	 * until the next request
+	 */
+	private void tick() {
+		if (pending) {
+			frameNow();
+		} else {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Returns the most frames drawn per second
+	 *
+	 * @return The target frame rate
+	 */
+	public int getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the number of frames drawn
+	 *
+	 * @return The frame count
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of times a frame was requested
+	 *
+	 * @return The request count
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Returns the number of frames that took longer than one frame period to
+	 * draw
+	 *
+	 * @return The slow frame count
+	 */
+	public long getSlowFrames() {
+		return slowFrames;
+	}
+
+	/**
+	 * Returns the durations of recent frames, oldest first
+	 *
+	 * @return The frame times in milliseconds
+	 */
+	public double[] getFrameTimes() {
+		int count = (int) Math.min(frames, HISTORY);
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = times[(int) ((frames - count + i) % HISTORY)] / 1e6;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the mean duration of recent frames
+	 *
+	 * @return The mean frame time in milliseconds, 0 if none were drawn
+	 */
+	public double getMeanFrameTime() {
+		double[] recent = getFrameTimes();
+		double total = 0;
+		for (double time : recent) {
+			total += time;
+		}
+		return recent.length == 0 ? 0 : total / recent.length;
+	}
+
+	/**
+	 * Returns the longest duration of recent frames
+	 *
+	 * @return The longest frame time in milliseconds, 0 if none were drawn
+	 */
+	public double getMaxFrameTime() {
+		double max = 0;
+		for (double time : getFrameTimes()) {
+			max = Math.max(max, time);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the mean memory allocated by recent frames on the thread
+	 * drawing them, which is none once drawing reuses everything it needs
+	 *
+	 * @return The mean bytes allocated per frame, -1 if the JVM can not
+	 *         measure it, 0 if no frames were drawn
+	 */
+	public double getMeanAllocation() {
+		int count = (int) Math.min(frames, HISTORY);
+		double total = 0;
+		for (int i = 0; i < count; i++) {
+			if (allocated[i] < 0) {
+				return -1;
+			}
+			total += allocated[i];
+		}
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * Returns the memory allocated by the current thread so far
+	 *
+	 * @return The allocated bytes, -1 if the JVM can not measure it
+	 */
+	public static long allocatedBytes() {
+		return ALLOCATIONS == null ? -1 : ALLOCATIONS
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the measure of the memory allocated by a thread, turning the
+	 * measure on if it is off
+	 *
+	 * @return The measure, null if the JVM does not have one
+	 */
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		try {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+				if (bean.isThreadAllocatedMemorySupported()) {
+					bean.setThreadAllocatedMemoryEnabled(true);
+					return bean;
+				}
+			}
+		} catch (LinkageError e) {
+			// The JVM is not one that can measure allocation
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the frame counts and recent frame times
+	 *
+	 * @return The statistics of the scheduler
+	 */
+	@Override
+	public String toString() {
+		return frames + " frames for " + requests + " requests, "
+				+ String.format("%.2f ms mean, %.2f ms max", getMeanFrameTime(),
+						getMaxFrameTime()) + ", " + slowFrames + " over "
+				+ (1000 / rate) + " ms, "
+				+ Math.round(getMeanAllocation()) + " bytes per frame";
+	}
+}
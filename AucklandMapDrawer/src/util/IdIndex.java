@@ -0,0 +1,98 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Maps the IDs of a collection to their positions in it in constant time.
+ * When the IDs are compact enough they index a table directly, otherwise they
+ * are kept in an open addressing hash table of primitive ints
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class IdIndex {
+
+	// IDs spread over more than this many slots per entry are hashed
+	private static final int MAX_SPREAD = 4;
+
+	// The smallest ID, subtracted before indexing the direct table
+	private int min;
+
+	// The direct table, or the values of the hash table
+	private int[] positions;
+
+	// The keys of the hash table, null when the table is direct
+	private int[] keys;
+	private int mask;
+
+	/**
+	 * Builds an index of the given IDs. If an ID appears more than once its
+	 * first position is kept
+	 *
+	 * @param ids
+	 *            The IDs in the order of the collection
+	 * @param count
+	 *            The number of IDs to be indexed
+	 */
+	public IdIndex(int[] ids, int count) {
+		int max = Integer.MIN_VALUE;
+		min = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			min = Math.min(min, ids[i]);
+			max = Math.max(max, ids[i]);
+		}
+		long spread = count == 0 ? 0 : (long) max - min + 1;
+		if (spread <= (long) count * MAX_SPREAD) {
+			positions = new int[(int) spread];
+			Arrays.fill(positions, -1);
+			for (int i = count - 1; i >= 0; i--) {
+				positions[ids[i] - min] = i;
+			}
+		} else {
+			int capacity = Integer.highestOneBit(count * 2 - 1) << 1;
+			mask = capacity - 1;
+			keys = new int[capacity];
+			positions = new int[capacity];
+			Arrays.fill(positions, -1);
+			for (int i = 0; i < count; i++) {
+				int slot = slot(ids[i]);
+				if (positions[slot] < 0) {
+					keys[slot] = ids[i];
+					positions[slot] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the given ID in the collection
+	 *
+	 * @param id
+	 *            The ID being searched for
+	 * @return The position, or -1 if the ID is not in the collection
+	 */
+	public int get(int id) {
+		if (keys == null) {
+			int i = id - min;
+			return i >= 0 && i < positions.length ? positions[i] : -1;
+		}
+		return positions[slot(id)];
+	}
+
+	/**
+	 * Finds the hash table slot holding the ID, or the empty slot it would be
+	 * placed in
+	 *
+	 * @param id
+	 *            The ID being searched for
+	 * @return The index of the slot
+	 */
+	private int slot(int id) {
+		int h = id * 0x9e3779b9;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (positions[slot] >= 0 && keys[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,485 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A two dimensional tree over the positions of the nodes of a map, used to
+ * find the nodes closest to a point, or within a distance or area of it,
+ * without checking every node. The tree is built once and stored implicitly
+ * in arrays: each range of the arrays holds a subtree whose median, split
+ * alternately on x and y, sits in the middle of the range
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class KdTree {
+
+	// Deep enough for any tree of up to 2^62 nodes
+	private static final int MAX_DEPTH = 64;
+
+	// The node indices and their positions, in tree order
+	private int[] indices;
+	private double[] xs, ys;
+
+	/**
+	 * Constructs the tree over every node in the collection
+	 *
+	 * @param nodes
+	 *            The nodes to be indexed
+	 */
+	public KdTree(NodeArray nodes) {
+		int count = nodes.size();
+		indices = new int[count];
+		xs = new double[count];
+		ys = new double[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = i;
+			xs[i] = nodes.getX(i);
+			ys[i] = nodes.getY(i);
+		}
+
+		// Ranges still to be split, with the depth of their subtree
+		int[] stack = new int[MAX_DEPTH * 3];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count;
+		stack[top++] = 0;
+		while (top > 0) {
+			int depth = stack[--top];
+			int hi = stack[--top];
+			int lo = stack[--top];
+			if (hi - lo < 2) {
+				continue;
+			}
+			int middle = (lo + hi) >>> 1;
+			select(lo, hi, middle, (depth & 1) == 0 ? xs : ys);
+			stack[top++] = lo;
+			stack[top++] = middle;
+			stack[top++] = depth + 1;
+			stack[top++] = middle + 1;
+			stack[top++] = hi;
+			stack[top++] = depth + 1;
+		}
+	}
+
+	/**
+	 * Returns the node closest to the given position. Of nodes the same
+	 * distance away the one added to the collection first is returned
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param maxDistance
+	 *            The furthest a node can be from the position
+	 * @return The index of the closest node, -1 if no node is within the
+	 *         distance
+	 */
+	public int nearest(double x, double y, double maxDistance) {
+		int best = -1;
+		double bestDistance = maxDistance * maxDistance;
+
+		// Subtrees still to be searched, with the depth of their root and how
+		// far the position is outside the subtree's region on each axis
+		int[] ranges = new int[MAX_DEPTH * 3];
+		double[] gaps = new double[MAX_DEPTH * 2];
+		int top = push(ranges, gaps, 0, 0, indices.length, 0, 0, 0);
+		while (top > 0) {
+			top--;
+			int lo = ranges[top * 3];
+			int hi = ranges[top * 3 + 1];
+			int depth = ranges[top * 3 + 2];
+			double gapX = gaps[top * 2];
+			double gapY = gaps[top * 2 + 1];
+			if (lo >= hi || gapX * gapX + gapY * gapY > bestDistance) {
+				continue;
+			}
+			int middle = (lo + hi) >>> 1;
+			double dx = x - xs[middle];
+			double dy = y - ys[middle];
+			double distance = dx * dx + dy * dy;
+			if (distance < bestDistance || distance == bestDistance
+					&& (best < 0 || indices[middle] < best)) {
+				best = indices[middle];
+				bestDistance = distance;
+			}
+
+			// Search the side of the split holding the position first
+			boolean splitX = (depth & 1) == 0;
+			double split = splitX ? dx : dy;
+			int nearLo = split < 0 ? lo : middle + 1;
+			int nearHi = split < 0 ? middle : hi;
+			int farLo = split < 0 ? middle + 1 : lo;
+			int farHi = split < 0 ? hi : middle;
+			top = push(ranges, gaps, top, farLo, farHi, depth + 1,
+					splitX ? split : gapX, splitX ? gapY : split);
+			top = push(ranges, gaps, top, nearLo, nearHi, depth + 1, gapX,
+					gapY);
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the nodes closest to the given position, closest first. Of nodes
+	 * the same distance away the one added to the collection first comes first
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param count
+	 *            The number of nodes wanted
+	 * @return The indices of the closest nodes, fewer than asked for if the
+	 *         tree holds fewer
+	 */
+	public int[] closest(double x, double y, int count) {
+		count = Math.max(0, Math.min(count, indices.length));
+
+		// The closest nodes found so far, kept as a heap with the furthest
+		// at the top so it can be replaced when a closer one is found
+		int[] heap = new int[count];
+		double[] heapDistances = new double[count];
+		int size = 0;
+
+		int[] ranges = new int[MAX_DEPTH * 3];
+		double[] gaps = new double[MAX_DEPTH * 2];
+		int top = count == 0 ? 0 : push(ranges, gaps, 0, 0, indices.length,
+				0, 0, 0);
+		while (top > 0) {
+			top--;
+			int lo = ranges[top * 3];
+			int hi = ranges[top * 3 + 1];
+			int depth = ranges[top * 3 + 2];
+			double gapX = gaps[top * 2];
+			double gapY = gaps[top * 2 + 1];
+			if (lo >= hi || size == count
+					&& gapX * gapX + gapY * gapY > heapDistances[0]) {
+				continue;
+			}
+			int middle = (lo + hi) >>> 1;
+			double dx = x - xs[middle];
+			double dy = y - ys[middle];
+			double distance = dx * dx + dy * dy;
+			if (size < count) {
+				heap[size] = indices[middle];
+				heapDistances[size] = distance;
+				siftUp(heap, heapDistances, size++);
+			} else if (further(heapDistances[0], heap[0], distance,
+					indices[middle])) {
+				heap[0] = indices[middle];
+				heapDistances[0] = distance;
+				siftDown(heap, heapDistances, 0, size);
+			}
+
+			boolean splitX = (depth & 1) == 0;
+			double split = splitX ? dx : dy;
+			int nearLo = split < 0 ? lo : middle + 1;
+			int nearHi = split < 0 ? middle : hi;
+			int farLo = split < 0 ? middle + 1 : lo;
+			int farHi = split < 0 ? hi : middle;
+			top = push(ranges, gaps, top, farLo, farHi, depth + 1,
+					splitX ? split : gapX, splitX ? gapY : split);
+			top = push(ranges, gaps, top, nearLo, nearHi, depth + 1, gapX,
+					gapY);
+		}
+
+		// Taking the furthest off the heap each time fills the result from
+		// the back
+		int[] closest = new int[size];
+		while (size > 0) {
+			closest[--size] = heap[0];
+			heap[0] = heap[size];
+			heapDistances[0] = heapDistances[size];
+			siftDown(heap, heapDistances, 0, size);
+		}
+		return closest;
+	}
+
+	/**
+	 * Finds every node within the given distance of a position
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param radius
+	 *            The furthest a node can be from the position
+	 * @return The indices of the nodes, in increasing order
+	 */
+	public int[] within(double x, double y, double radius) {
+		return find(x - radius, y - radius, x + radius, y + radius, x, y,
+				radius);
+	}
+
+	/**
+	 * Finds every node inside the given area
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return The indices of the nodes, in increasing order
+	 */
+	public int[] search(double minX, double minY, double maxX, double maxY) {
+		return find(minX, minY, maxX, maxY, 0, 0, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Finds every node inside the given area that is also within a distance
+	 * of a position
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param radius
+	 *            The furthest a node can be from the position, infinite to
+	 *            only check the area
+	 * @return The indices of the nodes, in increasing order
+	 */
+	private int[] find(double minX, double minY, double maxX, double maxY,
+			double x, double y, double radius) {
+		double radiusSquared = radius * radius;
+		int[] found = new int[16];
+		int count = 0;
+
+		// Subtrees still to be searched, with the depth of their root
+		int[] ranges = new int[MAX_DEPTH * 3];
+		int top = 0;
+		ranges[top++] = 0;
+		ranges[top++] = indices.length;
+		ranges[top++] = 0;
+		while (top > 0) {
+			int depth = ranges[--top];
+			int hi = ranges[--top];
+			int lo = ranges[--top];
+			if (lo >= hi) {
+				continue;
+			}
+			int middle = (lo + hi) >>> 1;
+			double nodeX = xs[middle];
+			double nodeY = ys[middle];
+			double dx = x - nodeX;
+			double dy = y - nodeY;
+			if (nodeX >= minX && nodeX <= maxX && nodeY >= minY
+					&& nodeY <= maxY && dx * dx + dy * dy <= radiusSquared) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				found[count++] = indices[middle];
+			}
+			double split = (depth & 1) == 0 ? nodeX : nodeY;
+			if (split >= ((depth & 1) == 0 ? minX : minY)) {
+				ranges[top++] = lo;
+				ranges[top++] = middle;
+				ranges[top++] = depth + 1;
+			}
+			if (split <= ((depth & 1) == 0 ? maxX : maxY)) {
+				ranges[top++] = middle + 1;
+				ranges[top++] = hi;
+				ranges[top++] = depth + 1;
+			}
+		}
+		return PackedRTree.sort(found, count, indices.length);
+	}
+
+	/**
+	 * Adds a subtree to the stack of subtrees to be searched
+	 *
+	 * @param ranges
+	 *            The first position, end and depth of each subtree
+	 * @param gaps
+	 *            How far the position is outside each subtree on each axis
+	 * @param top
+	 *            The size of the stack
+	 * @param lo
+	 *            The first position of the subtree
+	 * @param hi
+	 *            The position after the subtree
+	 * @param depth
+	 *            The depth of the subtree's root
+	 * @param gapX
+	 *            How far the position is outside the subtree on the x-axis
+	 * @param gapY
+	 *            How far the position is outside the subtree on the y-axis
+	 * @return The new size of the stack
+	 */
+	private static int push(int[] ranges, double[] gaps, int top, int lo,
+			int hi, int depth, double gapX, double gapY) {
+		ranges[top * 3] = lo;
+		ranges[top * 3 + 1] = hi;
+		ranges[top * 3 + 2] = depth;
+		gaps[top * 2] = gapX;
+		gaps[top * 2 + 1] = gapY;
+		return top + 1;
+	}
+
+	/**
+	 * Checks whether one node found by a search is further from the position
+	 * than another, nodes the same distance away being ordered by index
+	 *
+	 * @param distance
+	 *            The squared distance of the first node
+	 * @param index
+	 *            The index of the first node
+	 * @param otherDistance
+	 *            The squared distance of the other node
+	 * @param otherIndex
+	 *            The index of the other node
+	 * @return True if the first node comes after the other
+	 */
+	private static boolean further(double distance, int index,
+			double otherDistance, int otherIndex) {
+		return distance > otherDistance || distance == otherDistance
+				&& index > otherIndex;
+	}
+
+	/**
+	 * Moves a node up the heap of closest nodes until its parent is further
+	 * away than it
+	 *
+	 * @param heap
+	 *            The indices of the nodes in the heap
+	 * @param distances
+	 *            The squared distances of the nodes in the heap
+	 * @param i
+	 *            The position of the node being moved
+	 */
+	private static void siftUp(int[] heap, double[] distances, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!further(distances[i], heap[i], distances[parent], heap[parent])) {
+				return;
+			}
+			swap(heap, distances, i, parent);
+			i = parent;
+		}
+	}
+
+	/**
+	 * Moves a node down the heap of closest nodes until both its children are
+	 * closer than it
+	 *
+	 * @param heap
+	 *            The indices of the nodes in the heap
+	 * @param distances
+	 *            The squared distances of the nodes in the heap
+	 * @param i
+	 *            The position of the node being moved
+	 * @param size
+	 *            The number of nodes in the heap
+	 */
+	private static void siftDown(int[] heap, double[] distances, int i,
+			int size) {
+		while (i * 2 + 1 < size) {
+			int child = i * 2 + 1;
+			if (child + 1 < size
+					&& further(distances[child + 1], heap[child + 1],
+							distances[child], heap[child])) {
+				child++;
+			}
+			if (!further(distances[child], heap[child], distances[i], heap[i])) {
+				return;
+			}
+			swap(heap, distances, i, child);
+			i = child;
+		}
+	}
+
+	/**
+	 * Swaps two nodes of the heap of closest nodes
+	 *
+	 * @param heap
+	 *            The indices of the nodes in the heap
+	 * @param distances
+	 *            The squared distances of the nodes in the heap
+	 * @param i
+	 *            The position of a node
+	 * @param j
+	 *            The position of the other node
+	 */
+	private static void swap(int[] heap, double[] distances, int i, int j) {
+		int index = heap[i];
+		heap[i] = heap[j];
+		heap[j] = index;
+		double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+	}
+
+	/**
+	 * Partially sorts a range of the tree so that the position at k holds the
+	 * node that would be there if the range was sorted by the given
+	 * coordinate, with no larger coordinates before it and no smaller ones
+	 * after it
+	 *
+	 * @param lo
+	 *            The first position of the range
+	 * @param hi
+	 *            The position after the range
+	 * @param k
+	 *            The position to be filled
+	 * @param keys
+	 *            The coordinate to sort by, either xs or ys
+	 */
+	private void select(int lo, int hi, int k, double[] keys) {
+		int left = lo;
+		int right = hi - 1;
+		while (left < right) {
+			double pivot = keys[k];
+			int i = left;
+			int j = right;
+			do {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (pivot < keys[j]) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			} while (i <= j);
+			if (j < k) {
+				left = i;
+			}
+			if (k < i) {
+				right = j;
+			}
+		}
+	}
+
+	/**
+	 * Swaps two nodes of the tree
+	 *
+	 * @param i
+	 *            The position of a node
+	 * @param j
+	 *            The position of the other node
+	 */
+	private void swap(int i, int j) {
+		int index = indices[i];
+		indices[i] = indices[j];
+		indices[j] = index;
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+	}
+}
@@ -0,0 +1,207 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Works out which points of a line can be left out when it is drawn small.
+ * Each point is given the zoom band it is first needed at, using the
+ * Douglas-Peucker algorithm: a point is needed once it is half a pixel or
+ * more away from the line drawn without it. Bands double in zoom, band b
+ * starting at a zoom of 2^b, so drawing only the points whose band is no
+ * more than the current one keeps the line within a pixel of its true shape
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class LevelOfDetail {
+
+	// The band from which every point is drawn
+	public static final int FULL_DETAIL = 12;
+
+	// How far in pixels a left out point can be from the line drawn
+	private static final double TOLERANCE = 0.5;
+
+	/**
+	 * Returns the band of the given zoom
+	 *
+	 * @param zoom
+	 *            The zoom level of the map
+	 * @return The band, between 0 and FULL_DETAIL
+	 */
+	public static int band(double zoom) {
+		return Math.max(0, Math.min(FULL_DETAIL, Math.getExponent(zoom)));
+	}
+
+	/**
+	 * Works out the band each point of a line is first needed at. The first
+	 * and last points are always needed
+	 *
+	 * @param points
+	 *            Alternating x and y positions of the points
+	 * @param start
+	 *            The index of the line's first point in the array
+	 * @param count
+	 *            The number of points in the line
+	 * @param bands
+	 *            Filled in with the band of each point, indexed the same way
+	 *            as the points
+	 */
+	public static void simplify(double[] points, int start, int count,
+			byte[] bands) {
+		if (count == 0) {
+			return;
+		}
+		bands[start] = 0;
+		bands[start + count - 1] = 0;
+
+		// Runs of points still to be split, with the distance of the point
+		// they were split at so a point is never needed before its parent
+		int[] runs = new int[64];
+		double[] limits = new double[32];
+		int top = 0;
+		runs[0] = start;
+		runs[1] = start + count - 1;
+		limits[0] = Double.POSITIVE_INFINITY;
+		top++;
+		while (top > 0) {
+			top--;
+			int first = runs[top * 2];
+			int last = runs[top * 2 + 1];
+			if (last - first < 2) {
+				continue;
+			}
+			int furthest = -1;
+			double distance = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = distance(points, i, first, last);
+				if (d > distance) {
+					distance = d;
+					furthest = i;
+				}
+			}
+			distance = Math.min(distance, limits[top]);
+			bands[furthest] = (byte) bandOf(distance);
+
+			if ((top + 2) * 2 > runs.length) {
+				runs = Arrays.copyOf(runs, runs.length * 2);
+				limits = Arrays.copyOf(limits, limits.length * 2);
+			}
+			runs[top * 2] = first;
+			runs[top * 2 + 1] = furthest;
+			limits[top] = distance;
+			top++;
+			runs[top * 2] = furthest;
+			runs[top * 2 + 1] = last;
+			limits[top] = distance;
+			top++;
+		}
+	}
+
+	/**
+	 * Works out the band each point of a polygon ring is first needed at.
+	 * Rings join their parts with edges that run there and back along the
+	 * same line, so every point the ring passes through more than once is
+	 * always needed, and the runs between them are simplified on their own.
+	 * Both sides of a joining edge then keep the same ends, and leaving out
+	 * points can not pull them apart into slivers
+	 *
+	 * @param points
+	 *            Alternating x and y positions of the points
+	 * @param start
+	 *            The index of the ring's first point in the array
+	 * @param count
+	 *            The number of points in the ring
+	 * @param bands
+	 *            Filled in with the band of each point, indexed the same way
+	 *            as the points
+	 */
+	public static void simplifyRing(final double[] points, int start,
+			int count, byte[] bands) {
+		if (count == 0) {
+			return;
+		}
+		// Points at the same position are next to each other once sorted
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = start + i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byX = Double.compare(points[a * 2], points[b * 2]);
+				return byX != 0 ? byX : Double.compare(points[a * 2 + 1],
+						points[b * 2 + 1]);
+			}
+		});
+		boolean[] repeated = new boolean[count];
+		for (int i = 1; i < count; i++) {
+			int a = order[i - 1];
+			int b = order[i];
+			if (points[a * 2] == points[b * 2]
+					&& points[a * 2 + 1] == points[b * 2 + 1]) {
+				repeated[a - start] = true;
+				repeated[b - start] = true;
+			}
+		}
+
+		int from = start;
+		for (int i = start + 1; i < start + count; i++) {
+			if (repeated[i - start] || i == start + count - 1) {
+				simplify(points, from, i - from + 1, bands);
+				from = i;
+			}
+		}
+		if (count == 1) {
+			bands[start] = 0;
+		}
+	}
+
+	/**
+	 * Returns the first band at which a point this far from the simplified
+	 * line is more than the tolerance away in pixels
+	 *
+	 * @param distance
+	 *            The distance of the point from the line, in map units
+	 * @return The band
+	 */
+	private static int bandOf(double distance) {
+		if (distance <= 0) {
+			return FULL_DETAIL;
+		}
+		// The smallest zoom at which the distance reaches the tolerance
+		double zoom = TOLERANCE / distance;
+		int band = Math.getExponent(zoom);
+		if (Math.scalb(1.0, band) < zoom) {
+			band++;
+		}
+		return Math.max(0, Math.min(FULL_DETAIL, band));
+	}
+
+	/**
+	 * Returns the distance from a point to the line between two others
+	 *
+	 * @param points
+	 *            Alternating x and y positions of the points
+	 * @param point
+	 *            The index of the point
+	 * @param first
+	 *            The index of the start of the line
+	 * @param last
+	 *            The index of the end of the line
+	 * @return The distance to the closest point of the line
+	 */
+	private static double distance(double[] points, int point, int first,
+			int last) {
+		double x = points[point * 2];
+		double y = points[point * 2 + 1];
+		double x1 = points[first * 2];
+		double y1 = points[first * 2 + 1];
+		double dx = points[last * 2] - x1;
+		double dy = points[last * 2 + 1] - y1;
+		double length = dx * dx + dy * dy;
+		double along = length == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy)
+				/ length;
+		along = Math.max(0, Math.min(1, along));
+		return Math.hypot(x - x1 - along * dx, y - y1 - along * dy);
+	}
+}
@@ -0,0 +1,123 @@
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tracks how far through each of its data files a map load has got, and lets
+ * the load be cancelled from another thread
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class LoadProgress {
+
+	// File name to {bytes read, total bytes, records read}
+	private Map<String, long[]> files = new LinkedHashMap<String, long[]>();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Registers a file that is about to be read
+	 *
+	 * @param name
+	 *            The name of the file
+	 * @param bytes
+	 *            The size of the file in bytes
+	 */
+	public synchronized void addFile(String name, long bytes) {
+		files.put(name, new long[] { 0, bytes, 0 });
+	}
+
+	/**
+	 * Records that more of the file has been read
+	 *
+	 * @param name
+	 *            The name of the file
+	 * @param bytes
+	 *            The number of bytes read since the last update
+	 * @param records
+	 *            The number of records read since the last update
+	 */
+	public synchronized void advance(String name, long bytes, int records) {
+		long[] file = files.get(name);
+		if (file != null) {
+			file[0] = Math.min(file[1], file[0] + bytes);
+			file[2] += records;
+		}
+	}
+
+	/**
+	 * Records that the file has been read completely
+	 *
+	 * @param name
+	 *            The name of the file
+	 */
+	public synchronized void finish(String name) {
+		long[] file = files.get(name);
+		if (file != null) {
+			file[0] = file[1];
+		}
+	}
+
+	/**
+	 * Returns the fraction of all registered bytes that have been read
+	 *
+	 * @return A value between 0 and 1
+	 */
+	public synchronized double getFraction() {
+		long done = 0;
+		long total = 0;
+		for (long[] file : files.values()) {
+			done += file[0];
+			total += file[1];
+		}
+		return total == 0 ? 0 : (double) done / total;
+	}
+
+	/**
+	 * Stops the load at the next point it checks for cancellation
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether the load has been cancelled
+	 *
+	 * @return True if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Throws an exception if the load has been cancelled
+	 *
+	 * @throws CancellationException
+	 *             If the load has been cancelled
+	 */
+	public void checkCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Map loading cancelled");
+		}
+	}
+
+	/**
+	 * Returns a line for each file giving the percentage read and the number
+	 * of records read
+	 *
+	 * @return The progress of each file
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder details = new StringBuilder();
+		for (Map.Entry<String, long[]> e : files.entrySet()) {
+			long[] file = e.getValue();
+			long percent = file[1] == 0 ? 100 : file[0] * 100 / file[1];
+			details.append(e.getKey()).append(": ").append(percent)
+					.append("% (").append(file[2]).append(" records)\n");
+		}
+		return details.toString();
+	}
+}
@@ -0,0 +1,246 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads polygons from a polygon-shapes.mp file in a single pass over its
+ * bytes. Coordinates are parsed straight into a reused buffer of
+ * latitude/longitude pairs, so reading a polygon allocates nothing once the
+ * buffers have grown to fit the largest polygon
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class MpReader {
+
+	private ByteBuffer buffer;
+	private int position;
+
+	// The details of the current polygon
+	private int type, level;
+	private double[] coordinates = new double[256];
+	private int coordinateCount;
+	private int[] ringStarts = new int[4];
+	private int ringCount;
+
+	/**
+	 * Constructs a reader over the contents of a polygon file
+	 *
+	 * @param buffer
+	 *            The buffer containing the file
+	 */
+	public MpReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Advances to the next polygon in the file
+	 *
+	 * @return True if a polygon was read, false at the end of the file
+	 */
+	public boolean next() {
+		type = -1;
+		level = 1;
+		coordinateCount = 0;
+		ringCount = 0;
+		boolean inPolygon = false;
+		int limit = buffer.limit();
+		while (position < limit) {
+			int start = position;
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			position = end + 1;
+			if (end > start && buffer.get(end - 1) == '\r') {
+				end--;
+			}
+
+			if (startsWith(start, end, "[END]")) {
+				if (inPolygon) {
+					return true;
+				}
+			} else if (startsWith(start, end, "[POLYGON]")) {
+				inPolygon = true;
+			} else if (startsWith(start, end, "Type=")) {
+				type = parseInt(start + 5, end);
+				inPolygon = true;
+			} else if (startsWith(start, end, "EndLevel=")) {
+				level = parseInt(start + 9, end);
+				inPolygon = true;
+			} else if (startsWith(start, end, "Data")) {
+				readRing(start, end);
+				inPolygon = true;
+			}
+		}
+		return inPolygon;
+	}
+
+	/**
+	 * Returns how far through the file the reader is
+	 *
+	 * @return The index of the next byte to be read
+	 */
+	public int getPosition() {
+		return Math.min(position, buffer.limit());
+	}
+
+	/**
+	 * Returns the type code of the current polygon
+	 *
+	 * @return The type, -1 if the polygon did not specify one
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the end level of the current polygon
+	 *
+	 * @return The end level, 1 if the polygon did not specify one
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the number of rings in the current polygon. The first ring is
+	 * the outline and any others are cut outs
+	 *
+	 * @return The number of Data lines read
+	 */
+	public int getRingCount() {
+		return ringCount;
+	}
+
+	/**
+	 * Returns the index in the coordinate buffer of the first value of the
+	 * given ring
+	 *
+	 * @param ring
+	 *            The ring index
+	 * @return The index of the ring's first latitude
+	 */
+	public int getRingStart(int ring) {
+		return ringStarts[ring];
+	}
+
+	/**
+	 * Returns the index in the coordinate buffer after the last value of the
+	 * given ring
+	 *
+	 * @param ring
+	 *            The ring index
+	 * @return The index after the ring's last longitude
+	 */
+	public int getRingEnd(int ring) {
+		return ring + 1 < ringCount ? ringStarts[ring + 1] : coordinateCount;
+	}
+
+	/**
+	 * Returns the coordinate buffer of the current polygon as alternating
+	 * latitude and longitude values. The buffer is reused by the next call to
+	 * next()
+	 *
+	 * @return The coordinate buffer
+	 */
+	public double[] getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * Parses a DataN= line of bracketed latitude/longitude pairs into the
+	 * coordinate buffer as a new ring
+	 *
+	 * @param start
+	 *            The index of the first byte of the line
+	 * @param end
+	 *            The index after the last byte of the line
+	 */
+	private void readRing(int start, int end) {
+		if (ringCount == ringStarts.length) {
+			int[] grown = new int[ringCount * 2];
+			System.arraycopy(ringStarts, 0, grown, 0, ringCount);
+			ringStarts = grown;
+		}
+		ringStarts[ringCount++] = coordinateCount;
+		int i = start;
+		while (i < end && buffer.get(i) != '=') {
+			i++;
+		}
+		i++;
+		while (i < end) {
+			byte b = buffer.get(i);
+			if (b == '(' || b == ')' || b == ',' || b == ' ') {
+				i++;
+				continue;
+			}
+			int numberEnd = i;
+			while (numberEnd < end) {
+				byte c = buffer.get(numberEnd);
+				if (c == ',' || c == ')' || c == ' ') {
+					break;
+				}
+				numberEnd++;
+			}
+			if (coordinateCount == coordinates.length) {
+				double[] grown = new double[coordinateCount * 2];
+				System.arraycopy(coordinates, 0, grown, 0, coordinateCount);
+				coordinates = grown;
+			}
+			coordinates[coordinateCount++] = TabLine.parseDouble(buffer, i,
+					numberEnd);
+			i = numberEnd;
+		}
+	}
+
+	/**
+	 * Parses an integer written in hex with a 0x prefix or in decimal
+	 *
+	 * @param start
+	 *            The index of the first byte of the integer
+	 * @param end
+	 *            The index after the last byte of the integer
+	 * @return The integer value
+	 */
+	private int parseInt(int start, int end) {
+		int radix = 10;
+		if (end - start > 2 && buffer.get(start) == '0'
+				&& Character.toLowerCase(buffer.get(start + 1)) == 'x') {
+			radix = 16;
+			start += 2;
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(buffer.get(i), radix);
+			if (digit < 0) {
+				throw new NumberFormatException("Not an integer at " + i);
+			}
+			value = value * radix + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Checks whether the line begins with the given ASCII prefix
+	 *
+	 * @param start
+	 *            The index of the first byte of the line
+	 * @param end
+	 *            The index after the last byte of the line
+	 * @param prefix
+	 *            The prefix to be checked for
+	 * @return True if the line starts with the prefix
+	 */
+	private boolean startsWith(int start, int end, String prefix) {
+		if (end - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buffer.get(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
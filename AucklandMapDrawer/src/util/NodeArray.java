@@ -1,13 +1,17 @@
 package util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import core.Node;
+import core.Segment;
 
 /**
- * A storage class for map intersections
+ * A storage class for map intersections. Nodes are stored as columns of
+ * primitive values indexed by their position in the collection, the Node
+ * objects handed out are lightweight views onto a position
  * 
  * @author Oliver Greenaway
  * 
@@ -15,23 +19,59 @@ import core.Node;
 public class NodeArray implements Iterable<Node> {
 
 	// Data variables
-	private List<Node> nodes;
+	private int size;
+	private int[] ids;
+	private double[] xs, ys;
+	private boolean[] selected;
+	private List<Segment>[] connections;
+
+	// Finds the position of an ID, rebuilt after the nodes change
+	private volatile IdIndex index;
 
 	/**
 	 * Constructs an empty Collection of nodes
 	 */
 	public NodeArray() {
-		this.nodes = new ArrayList<Node>();
+		this(16);
 	}
 
 	/**
-	 * Adds the given node to the collection of nodes
+	 * Constructs an empty Collection of nodes with room for the given number
+	 * of nodes
 	 * 
-	 * @param object
-	 *            The Map Node to be added
+	 * @param capacity
+	 *            The number of nodes expected
 	 */
-	public void add(Node object) {
-		nodes.add(object);
+	@SuppressWarnings("unchecked")
+	public NodeArray(int capacity) {
+		capacity = Math.max(capacity, 1);
+		ids = new int[capacity];
+		xs = new double[capacity];
+		ys = new double[capacity];
+		selected = new boolean[capacity];
+		connections = (List<Segment>[]) new List<?>[capacity];
+	}
+
+	/**
+	 * Adds a node with the given details to the collection of nodes
+	 * 
+	 * @param id
+	 *            The ID of the node
+	 * @param x
+	 *            The x position of the node
+	 * @param y
+	 *            The y position of the node
+	 * @return The index of the new node
+	 */
+	public int add(int id, double x, double y) {
+		if (size == ids.length) {
+			grow(size * 2);
+		}
+		ids[size] = id;
+		xs[size] = x;
+		ys[size] = y;
+		index = null;
+		return size++;
 	}
 
 	/**
@@ -42,23 +82,7 @@ public class NodeArray implements Iterable<Node> {
 	 * @return True if the Node is contained, otherwise returns False
 	 */
 	public boolean contains(Node object) {
-		if (object == null) {
-			return false;
-		} else {
-			int i = 0;
-			int j = nodes.size() - 1;
-			while (i <= j) {
-				int mid = (int) Math.ceil((double) (i + j) / 2);
-				if (nodes.get(mid).compareTo(object) == 0) {
-					return true;
-				} else if (nodes.get(mid).compareTo(object) > 0) {
-					j = mid - 1;
-				} else {
-					i = mid + 1;
-				}
-			}
-			return false;
-		}
+		return object != null && indexOf(object.getID()) >= 0;
 	}
 
 	/**
@@ -70,72 +94,195 @@ public class NodeArray implements Iterable<Node> {
 	 *         null
 	 */
 	public Node get(int ID) {
-		int i = 0;
-		int j = nodes.size() - 1;
-		while (i <= j) {
-			int mid = (int) Math.ceil((double) (i + j) / 2);
-			if (nodes.get(mid).getID() == ID) {
-				return nodes.get(mid);
-			} else if (nodes.get(mid).getID() > ID) {
-				j = mid - 1;
-			} else {
-				i = mid + 1;
-			}
+		int index = indexOf(ID);
+		return index < 0 ? null : new Node(this, index);
+	}
+
+	/**
+	 * Returns the position of the node with the matching ID in the
+	 * collection
+	 * 
+	 * @param ID
+	 *            The ID of the Node being searched for
+	 * @return The index of the Node, -1 if it does not exist
+	 */
+	public int indexOf(int ID) {
+		IdIndex index = this.index;
+		if (index == null) {
+			index = new IdIndex(ids, size);
+			this.index = index;
 		}
-		return null;
+		return index.get(ID);
 	}
 
 	/**
-	 * Sorts the data using the quick sort Algorithm
+	 * Returns the node at the given position of the collection
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return The Node at that position
 	 */
+	public Node getIndex(int index) {
+		return new Node(this, index);
+	}
+
+	/**
+	 * Returns the number of nodes in the collection
+	 * 
+	 * @return The number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the ID of the node at the given position
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return The Node ID
+	 */
+	public int getID(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Returns the x position of the node at the given position
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return The x coordinate
+	 */
+	public double getX(int index) {
+		return xs[index];
+	}
+
+	/**
+	 * Returns the y position of the node at the given position
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return The y coordinate
+	 */
+	public double getY(int index) {
+		return ys[index];
+	}
+
+	/**
+	 * Returns whether the node at the given position is selected
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return True if selected
+	 */
+	public boolean isSelected(int index) {
+		return selected[index];
+	}
+
+	/**
+	 * Sets whether the node at the given position is selected
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @param s
+	 *            True if selected
+	 */
+	public void setSelected(int index, boolean s) {
+		selected[index] = s;
+	}
+
+	/**
+	 * Returns the segments connected to the node at the given position
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @return The connected segments
+	 */
+	public List<Segment> getConnections(int index) {
+		if (connections[index] == null) {
+			return Collections.emptyList();
+		}
+		return connections[index];
+	}
+
+	/**
+	 * Connects the node at the given position with the segment
+	 * 
+	 * @param index
+	 *            The position of the node
+	 * @param segment
+	 *            The segment to connect with
+	 */
+	public void connect(int index, Segment segment) {
+		if (connections[index] == null) {
+			connections[index] = new ArrayList<Segment>(4);
+		}
+		connections[index].add(segment);
+	}
+
+	/**
+	 * Sorts the nodes by ID, moving every column into the order found by a
+	 * radix sort of the IDs
+	 */
+	@SuppressWarnings("unchecked")
 	public void sort() {
-		quicksort(0, nodes.size() - 1);
-	}
-
-	/**
-	 * The quick sort Algorithm
-	 * 
-	 * @param low
-	 *            The lower bound of the area to be sorted
-	 * @param high
-	 *            The upper bound of the area being sorted
-	 */
-	private void quicksort(int low, int high) {
-		int i = low;
-		int j = high;
-		int pivot = nodes.get(low + (high - low) / 2).getID();
-
-		while (i <= j) {
-			while (nodes.get(i).getID() < pivot) {
-				i++;
-			}
-			while (nodes.get(j).getID() > pivot) {
-				j--;
-			}
-			if (i <= j) {
-				exchange(i, j);
-				i++;
-				j--;
-			}
+		if (RadixSort.isSorted(ids, size)) {
+			return;
 		}
-		if (low < j)
-			quicksort(low, j);
-		if (i < high)
-			quicksort(i, high);
+		int[] order = RadixSort.order(ids, size);
+		int[] sortedIds = new int[ids.length];
+		double[] sortedXs = new double[ids.length];
+		double[] sortedYs = new double[ids.length];
+		boolean[] sortedSelected = new boolean[ids.length];
+		List<Segment>[] sortedConnections = (List<Segment>[]) new List<?>[ids.length];
+		for (int i = 0; i < size; i++) {
+			int from = order[i];
+			sortedIds[i] = ids[from];
+			sortedXs[i] = xs[from];
+			sortedYs[i] = ys[from];
+			sortedSelected[i] = selected[from];
+			sortedConnections[i] = connections[from];
+		}
+		ids = sortedIds;
+		xs = sortedXs;
+		ys = sortedYs;
+		selected = sortedSelected;
+		connections = sortedConnections;
+		index = null;
 	}
 
 	/**
-	 * Swaps the ith index with the jth index of the storage class
+	 * Resizes every column to the given capacity
 	 * 
-	 * @param i
-	 *            Index to be switched
-	 * @param j
-	 *            Index to be switched
+	 * @param capacity
+	 *            The new capacity
+	 */
+	@SuppressWarnings("unchecked")
+	private void grow(int capacity) {
+		int[] newIds = new int[capacity];
+		double[] newXs = new double[capacity];
+		double[] newYs = new double[capacity];
+		boolean[] newSelected = new boolean[capacity];
+		List<Segment>[] newConnections = (List<Segment>[]) new List<?>[capacity];
+		System.arraycopy(ids, 0, newIds, 0, size);
+		System.arraycopy(xs, 0, newXs, 0, size);
+		System.arraycopy(ys, 0, newYs, 0, size);
+		System.arraycopy(selected, 0, newSelected, 0, size);
+		System.arraycopy(connections, 0, newConnections, 0, size);
+		ids = newIds;
+		xs = newXs;
+		ys = newYs;
+		selected = newSelected;
+		connections = newConnections;
+	}
+
+	/**
+	 * Releases any capacity beyond the number of nodes stored
 	 */
-	private void exchange(int i, int j) {
-		Node temp = nodes.get(i);
-		nodes.set(i, nodes.get(j));
-		nodes.set(j, temp);
+	public void trim() {
+		if (size < ids.length) {
+			grow(Math.max(size, 1));
+		}
 	}
 
 	@Override
@@ -163,7 +310,7 @@ public class NodeArray implements Iterable<Node> {
 
 		@Override
 		public boolean hasNext() {
-			return count < nodes.size();
+			return count < size;
 		}
 
 		@Override
@@ -172,7 +319,7 @@ public class NodeArray implements Iterable<Node> {
 
 		@Override
 		public Node next() {
-			return nodes.get(count++);
+			return new Node(NodeArray.this, count++);
 		}
 
 	}
@@ -0,0 +1,495 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A static R-tree over the bounding boxes of a set of items, used to find
+ * the items that may be visible in part of the map or that are closest to a
+ * point. The boxes are ordered along a Hilbert curve through their centres
+ * and packed bottom up into nodes of 16, so the whole tree is a few arrays
+ * with no node objects. Searches of an area return item numbers in
+ * increasing order, so items can be drawn in the same order whether or not
+ * they were found through the tree
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class PackedRTree {
+
+	// The number of children of each node
+	private static final int NODE_SIZE = 16;
+
+	// Bits of each axis used for the Hilbert curve
+	private static final int HILBERT_BITS = 15;
+
+	// The fraction box distances are scaled by in closest searches. An item
+	// on the edge of its box can measure a rounding error closer than the
+	// box, and would otherwise be found after items that are equally close
+	private static final double BOX_SLACK = 1 - 1e-9;
+
+	// Alternating min x, min y, max x, max y of every box, leaves first and
+	// the root last
+	private double[] boxes;
+
+	// The item of each leaf, or the position of the first child of a node
+	private int[] children;
+
+	// The position after the last box of each level, leaves first
+	private int[] levelEnds;
+
+	// The number of items the tree was built over
+	private int itemCount;
+
+	/**
+	 * Gives the distance from a position to an item of the tree
+	 *
+	 * @author Oliver Greenaway
+	 *
+	 */
+	public interface Measure {
+
+		/**
+		 * Returns the distance from a position to an item
+		 *
+		 * @param item
+		 *            The item
+		 * @param x
+		 *            The x position
+		 * @param y
+		 *            The y position
+		 * @return The distance, no less than the distance to the item's box
+		 */
+		double distance(int item, double x, double y);
+	}
+
+	/**
+	 * Constructs the tree over the given boxes. An item whose minimum is
+	 * larger than its maximum has no extent and is left out of the tree
+	 *
+	 * @param minX
+	 *            The left of each item
+	 * @param minY
+	 *            The top of each item
+	 * @param maxX
+	 *            The right of each item
+	 * @param maxY
+	 *            The bottom of each item
+	 * @param count
+	 *            The number of items
+	 */
+	public PackedRTree(double[] minX, double[] minY, double[] maxX,
+			double[] maxY, int count) {
+		itemCount = count;
+		int[] items = new int[count];
+		int leaves = 0;
+		double left = Double.POSITIVE_INFINITY, top = left;
+		double right = Double.NEGATIVE_INFINITY, bottom = right;
+		for (int i = 0; i < count; i++) {
+			if (minX[i] <= maxX[i] && minY[i] <= maxY[i]) {
+				items[leaves++] = i;
+				left = Math.min(left, minX[i]);
+				top = Math.min(top, minY[i]);
+				right = Math.max(right, maxX[i]);
+				bottom = Math.max(bottom, maxY[i]);
+			}
+		}
+
+		// Sort the items along the curve, keeping their order where they
+		// share a position on it
+		int[] keys = new int[leaves];
+		int cells = (1 << HILBERT_BITS) - 1;
+		double scaleX = cells / Math.max(right - left, 1e-9);
+		double scaleY = cells / Math.max(bottom - top, 1e-9);
+		for (int i = 0; i < leaves; i++) {
+			int item = items[i];
+			keys[i] = hilbert(
+					(int) (((minX[item] + maxX[item]) / 2 - left) * scaleX),
+					(int) (((minY[item] + maxY[item]) / 2 - top) * scaleY));
+		}
+		int[] order = RadixSort.order(keys, leaves);
+
+		int nodes = leaves;
+		int levels = 1;
+		for (int n = leaves; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE) {
+			nodes += (n + NODE_SIZE - 1) / NODE_SIZE;
+			levels++;
+		}
+		boxes = new double[nodes * 4];
+		children = new int[nodes];
+		levelEnds = new int[levels];
+		for (int i = 0; i < leaves; i++) {
+			int item = items[order[i]];
+			children[i] = item;
+			boxes[i * 4] = minX[item];
+			boxes[i * 4 + 1] = minY[item];
+			boxes[i * 4 + 2] = maxX[item];
+			boxes[i * 4 + 3] = maxY[item];
+		}
+
+		// Each level holds one box around every run of NODE_SIZE boxes of
+		// the level below
+		levelEnds[0] = leaves;
+		int start = 0;
+		for (int level = 1; level < levels; level++) {
+			int end = levelEnds[level - 1];
+			int node = end;
+			for (int first = start; first < end; first += NODE_SIZE) {
+				double nodeMinX = Double.POSITIVE_INFINITY;
+				double nodeMinY = nodeMinX;
+				double nodeMaxX = Double.NEGATIVE_INFINITY;
+				double nodeMaxY = nodeMaxX;
+				int last = Math.min(first + NODE_SIZE, end);
+				for (int i = first; i < last; i++) {
+					nodeMinX = Math.min(nodeMinX, boxes[i * 4]);
+					nodeMinY = Math.min(nodeMinY, boxes[i * 4 + 1]);
+					nodeMaxX = Math.max(nodeMaxX, boxes[i * 4 + 2]);
+					nodeMaxY = Math.max(nodeMaxY, boxes[i * 4 + 3]);
+				}
+				children[node] = first;
+				boxes[node * 4] = nodeMinX;
+				boxes[node * 4 + 1] = nodeMinY;
+				boxes[node * 4 + 2] = nodeMaxX;
+				boxes[node * 4 + 3] = nodeMaxY;
+				node++;
+			}
+			levelEnds[level] = node;
+			start = end;
+		}
+	}
+
+	/**
+	 * Finds every item whose box overlaps the given area
+	 *
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return The items, in increasing order
+	 */
+	public int[] search(double minX, double minY, double maxX, double maxY) {
+		int root = levelEnds[levelEnds.length - 1] - 1;
+		if (root < 0 || !overlaps(root, minX, minY, maxX, maxY)) {
+			return new int[0];
+		} else if (levelEnds.length == 1) {
+			return new int[] { children[root] };
+		} else if (boxes[root * 4] >= minX && boxes[root * 4 + 1] >= minY
+				&& boxes[root * 4 + 2] <= maxX && boxes[root * 4 + 3] <= maxY) {
+			// Every item is inside the area
+			return sort(children, levelEnds[0], itemCount);
+		}
+		int[] found = new int[16];
+		int count = 0;
+
+		// Nodes still to be checked, as their position and level
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = root;
+		stack[top++] = levelEnds.length - 1;
+		while (top > 0) {
+			int level = stack[--top];
+			int node = stack[--top];
+			int end = Math.min(children[node] + NODE_SIZE,
+					levelEnds[level - 1]);
+			for (int i = children[node]; i < end; i++) {
+				if (!overlaps(i, minX, minY, maxX, maxY)) {
+					continue;
+				} else if (level == 1) {
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = children[i];
+				} else {
+					if (top + 2 > stack.length) {
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					}
+					stack[top++] = i;
+					stack[top++] = level - 1;
+				}
+			}
+		}
+		return sort(found, count, itemCount);
+	}
+
+	/**
+	 * Returns the items closest to the given position, closest first. Boxes
+	 * are opened in order of how far they are from the position, so the search
+	 * stops as soon as the next box is further away than every item still
+	 * wanted. Of items the same distance away the lowest comes first
+	 *
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param count
+	 *            The number of items wanted
+	 * @param measure
+	 *            Gives the distance from the position to an item, which must
+	 *            be no less than the distance to the item's box
+	 * @return The closest items, fewer than asked for if the tree holds fewer
+	 */
+	public int[] closest(double x, double y, int count, Measure measure) {
+		int root = levelEnds[levelEnds.length - 1] - 1;
+		int[] closest = new int[Math.max(0, Math.min(count, levelEnds[0]))];
+		if (closest.length == 0) {
+			return closest;
+		}
+
+		// Boxes and items still to be looked at, as a heap ordered by their
+		// distance from the position. An entry is a box's position and level,
+		// or an item and -1
+		int[] entries = new int[64];
+		double[] distances = new double[32];
+		int size = 0;
+		int found = 0;
+		if (levelEnds.length == 1) {
+			size = offer(entries, distances, size, children[root], -1,
+					measure.distance(children[root], x, y));
+		} else {
+			size = offer(entries, distances, size, root,
+					levelEnds.length - 1, boxDistance(root, x, y));
+		}
+		while (size > 0 && found < closest.length) {
+			int node = entries[0];
+			int level = entries[1];
+			size = poll(entries, distances, size);
+			if (level < 0) {
+				closest[found++] = node;
+				continue;
+			}
+			if (size + NODE_SIZE > distances.length) {
+				entries = Arrays.copyOf(entries, entries.length * 2
+						+ NODE_SIZE * 2);
+				distances = Arrays.copyOf(distances, distances.length * 2
+						+ NODE_SIZE);
+			}
+			int end = Math.min(children[node] + NODE_SIZE,
+					levelEnds[level - 1]);
+			for (int i = children[node]; i < end; i++) {
+				if (level == 1) {
+					size = offer(entries, distances, size, children[i], -1,
+							measure.distance(children[i], x, y));
+				} else {
+					size = offer(entries, distances, size, i, level - 1,
+							boxDistance(i, x, y));
+				}
+			}
+		}
+		return Arrays.copyOf(closest, found);
+	}
+
+	/**
+	 * Returns the distance from a position to a box of the tree
+	 *
+	 * @param box
+	 *            The position of the box
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @return The distance less a rounding error, zero if the position is
+	 *         inside the box
+	 */
+	private double boxDistance(int box, double x, double y) {
+		double dx = Math.max(0, Math.max(boxes[box * 4] - x, x
+				- boxes[box * 4 + 2]));
+		double dy = Math.max(0, Math.max(boxes[box * 4 + 1] - y, y
+				- boxes[box * 4 + 3]));
+		return Math.hypot(dx, dy) * BOX_SLACK;
+	}
+
+	/**
+	 * Adds an entry to the heap of a closest search
+	 *
+	 * @param entries
+	 *            The position and level of each entry
+	 * @param distances
+	 *            The distance of each entry
+	 * @param size
+	 *            The number of entries in the heap
+	 * @param node
+	 *            The position of the box, or the item
+	 * @param level
+	 *            The level of the box, -1 for an item
+	 * @param distance
+	 *            The distance of the box or item from the position
+	 * @return The new number of entries
+	 */
+	private static int offer(int[] entries, double[] distances, int size,
+			int node, int level, double distance) {
+		int i = size;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!before(distance, node, level, distances[parent],
+					entries[parent * 2], entries[parent * 2 + 1])) {
+				break;
+			}
+			entries[i * 2] = entries[parent * 2];
+			entries[i * 2 + 1] = entries[parent * 2 + 1];
+			distances[i] = distances[parent];
+			i = parent;
+		}
+		entries[i * 2] = node;
+		entries[i * 2 + 1] = level;
+		distances[i] = distance;
+		return size + 1;
+	}
+
+	/**
+	 * Removes the first entry from the heap of a closest search
+	 *
+	 * @param entries
+	 *            The position and level of each entry
+	 * @param distances
+	 *            The distance of each entry
+	 * @param size
+	 *            The number of entries in the heap
+	 * @return The new number of entries
+	 */
+	private static int poll(int[] entries, double[] distances, int size) {
+		size--;
+		int node = entries[size * 2];
+		int level = entries[size * 2 + 1];
+		double distance = distances[size];
+		int i = 0;
+		while (i * 2 + 1 < size) {
+			int child = i * 2 + 1;
+			if (child + 1 < size
+					&& before(distances[child + 1], entries[child * 2 + 2],
+							entries[child * 2 + 3], distances[child],
+							entries[child * 2], entries[child * 2 + 1])) {
+				child++;
+			}
+			if (!before(distances[child], entries[child * 2],
+					entries[child * 2 + 1], distance, node, level)) {
+				break;
+			}
+			entries[i * 2] = entries[child * 2];
+			entries[i * 2 + 1] = entries[child * 2 + 1];
+			distances[i] = distances[child];
+			i = child;
+		}
+		entries[i * 2] = node;
+		entries[i * 2 + 1] = level;
+		distances[i] = distance;
+		return size;
+	}
+
+	/**
+	 * Checks whether an entry of a closest search should be looked at before
+	 * another. Closer entries come first, then boxes before items so an item
+	 * inside a box the same distance away is not missed, then lower items
+	 *
+	 * @param distance
+	 *            The distance of the first entry
+	 * @param node
+	 *            The box or item of the first entry
+	 * @param level
+	 *            The level of the first entry, -1 for an item
+	 * @param otherDistance
+	 *            The distance of the other entry
+	 * @param otherNode
+	 *            The box or item of the other entry
+	 * @param otherLevel
+	 *            The level of the other entry, -1 for an item
+	 * @return True if the first entry comes before the other
+	 */
+	private static boolean before(double distance, int node, int level,
+			double otherDistance, int otherNode, int otherLevel) {
+		if (distance != otherDistance) {
+			return distance < otherDistance;
+		} else if (level != otherLevel) {
+			return level > otherLevel;
+		}
+		return node < otherNode;
+	}
+
+	/**
+	 * Puts the items found by a search into increasing order. Large results
+	 * are sorted by marking each item in a bitmap and reading the bitmap back,
+	 * which is quicker than comparing them when most items are found
+	 *
+	 * @param found
+	 *            The items, in any order
+	 * @param count
+	 *            The number of items found
+	 * @param range
+	 *            One more than the largest possible item
+	 * @return The items in increasing order
+	 */
+	static int[] sort(int[] found, int count, int range) {
+		if (count < range / 64) {
+			found = Arrays.copyOf(found, count);
+			Arrays.sort(found);
+			return found;
+		}
+		long[] bits = new long[(range + 63) / 64];
+		for (int i = 0; i < count; i++) {
+			bits[found[i] >>> 6] |= 1L << found[i];
+		}
+		int[] sorted = new int[count];
+		int n = 0;
+		for (int word = 0; word < bits.length; word++) {
+			long b = bits[word];
+			while (b != 0) {
+				sorted[n++] = (word << 6) + Long.numberOfTrailingZeros(b);
+				b &= b - 1;
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Checks whether a box of the tree overlaps an area
+	 *
+	 * @param box
+	 *            The position of the box
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return True if they share any point
+	 */
+	private boolean overlaps(int box, double minX, double minY, double maxX,
+			double maxY) {
+		return boxes[box * 4] <= maxX && boxes[box * 4 + 1] <= maxY
+				&& boxes[box * 4 + 2] >= minX && boxes[box * 4 + 3] >= minY;
+	}
+
+	/**
+	 * Returns the position of a point along a Hilbert curve filling a square
+	 * of 2^15 cells a side, so points close on the curve are close in space
+	 *
+	 * @param x
+	 *            The column of the point
+	 * @param y
+	 *            The row of the point
+	 * @return The distance along the curve
+	 */
+	private static int hilbert(int x, int y) {
+		int n = 1 << HILBERT_BITS;
+		int d = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,256 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts int keys with a least significant digit radix sort, producing the
+ * permutation that puts a collection in key order rather than moving its
+ * elements. Large inputs are split into chunks that are counted and
+ * scattered on all available cores. The sort is stable, so equal keys keep
+ * their original order
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class RadixSort {
+
+	// Inputs smaller than this are sorted on the calling thread
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	// Bits sorted per pass
+	private static final int DIGIT_BITS = 8;
+	private static final int RADIX = 1 << DIGIT_BITS;
+
+	/**
+	 * Returns the order the given keys should be visited in to be sorted
+	 *
+	 * @param keys
+	 *            The keys to be sorted, which are not modified
+	 * @param count
+	 *            The number of keys to sort
+	 * @return An array where element i is the position of the ith smallest
+	 *         key
+	 */
+	public static int[] order(int[] keys, int count) {
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		if (isSorted(keys, count)) {
+			return order;
+		}
+
+		// Flipping the sign bit makes unsigned digit order match signed order
+		int[] src = new int[count];
+		for (int i = 0; i < count; i++) {
+			src[i] = keys[i] ^ Integer.MIN_VALUE;
+		}
+		int[] dst = new int[count];
+		int[] orderDst = new int[count];
+
+		int threads = count < PARALLEL_THRESHOLD ? 1 : Runtime.getRuntime()
+				.availableProcessors();
+		int chunkSize = (count + threads - 1) / threads;
+		ExecutorService pool = threads > 1 ? Executors
+				.newFixedThreadPool(threads) : null;
+		try {
+			for (int shift = 0; shift < 32; shift += DIGIT_BITS) {
+				int[][] counts = new int[threads][RADIX];
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int c = 0; c < threads; c++) {
+					tasks.add(new Count(src, c * chunkSize, Math.min(count,
+							(c + 1) * chunkSize), shift, counts[c]));
+				}
+				run(pool, tasks);
+
+				// Turn the counts into the first output position of each digit
+				// of each chunk, skipping passes where every key shares a digit
+				boolean skip = false;
+				int position = 0;
+				for (int d = 0; d < RADIX; d++) {
+					int total = 0;
+					for (int c = 0; c < threads; c++) {
+						int n = counts[c][d];
+						counts[c][d] = position;
+						position += n;
+						total += n;
+					}
+					skip |= total == count;
+				}
+				if (skip) {
+					continue;
+				}
+
+				tasks.clear();
+				for (int c = 0; c < threads; c++) {
+					tasks.add(new Scatter(src, order, dst, orderDst, c
+							* chunkSize, Math.min(count, (c + 1) * chunkSize),
+							shift, counts[c]));
+				}
+				run(pool, tasks);
+				int[] swap = src;
+				src = dst;
+				dst = swap;
+				swap = order;
+				order = orderDst;
+				orderDst = swap;
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Checks whether the keys are already in order
+	 *
+	 * @param keys
+	 *            The keys to be checked
+	 * @param count
+	 *            The number of keys to check
+	 * @return True if no key is smaller than the one before it
+	 */
+	public static boolean isSorted(int[] keys, int count) {
+		for (int i = 1; i < count; i++) {
+			if (keys[i] < keys[i - 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the tasks on the pool, or on the calling thread if there is no
+	 * pool or the wait is interrupted. The tasks only write to their own part
+	 * of the output so running one again gives the same result
+	 *
+	 * @param pool
+	 *            The pool to run the tasks on, may be null
+	 * @param tasks
+	 *            The tasks to be run
+	 */
+	private static void run(ExecutorService pool, List<Callable<Void>> tasks) {
+		if (pool != null) {
+			try {
+				for (Future<Void> result : pool.invokeAll(tasks)) {
+					result.get();
+				}
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		for (Callable<Void> task : tasks) {
+			try {
+				task.call();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Counts how many keys of a chunk have each digit
+	 */
+	private static class Count implements Callable<Void> {
+
+		private int[] keys, counts;
+		private int start, end, shift;
+
+		/**
+		 * Constructs a task counting the digits of the keys between the given
+		 * positions
+		 *
+		 * @param keys
+		 *            The keys being sorted
+		 * @param start
+		 *            The first position of the chunk
+		 * @param end
+		 *            The position after the chunk
+		 * @param shift
+		 *            The position of the digit within the key
+		 * @param counts
+		 *            The count of each digit, filled in by the task
+		 */
+		public Count(int[] keys, int start, int end, int shift, int[] counts) {
+			this.keys = keys;
+			this.start = start;
+			this.end = end;
+			this.shift = shift;
+			this.counts = counts;
+		}
+
+		@Override
+		public Void call() {
+			Arrays.fill(counts, 0);
+			for (int i = start; i < end; i++) {
+				counts[(keys[i] >>> shift) & (RADIX - 1)]++;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Moves the keys of a chunk, and their positions, to where their digit
+	 * belongs in the output
+	 */
+	private static class Scatter implements Callable<Void> {
+
+		private int[] keys, order, keysOut, orderOut, offsets;
+		private int start, end, shift;
+
+		/**
+		 * Constructs a task scattering the keys between the given positions
+		 *
+		 * @param keys
+		 *            The keys being sorted
+		 * @param order
+		 *            The original positions of the keys
+		 * @param keysOut
+		 *            The array the keys are moved to
+		 * @param orderOut
+		 *            The array the positions are moved to
+		 * @param start
+		 *            The first position of the chunk
+		 * @param end
+		 *            The position after the chunk
+		 * @param shift
+		 *            The position of the digit within the key
+		 * @param offsets
+		 *            The first output position of each digit for this chunk
+		 */
+		public Scatter(int[] keys, int[] order, int[] keysOut,
+				int[] orderOut, int start, int end, int shift, int[] offsets) {
+			this.keys = keys;
+			this.order = order;
+			this.keysOut = keysOut;
+			this.orderOut = orderOut;
+			this.start = start;
+			this.end = end;
+			this.shift = shift;
+			this.offsets = offsets;
+		}
+
+		@Override
+		public Void call() {
+			int[] next = offsets.clone();
+			for (int i = start; i < end; i++) {
+				int position = next[(keys[i] >>> shift) & (RADIX - 1)]++;
+				keysOut[position] = keys[i];
+				orderOut[position] = order[i];
+			}
+			return null;
+		}
+	}
+}
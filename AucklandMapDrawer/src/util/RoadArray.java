@@ -17,6 +17,9 @@ public class RoadArray implements Iterable<Road> {
 	// Data variables
 	private List<Road> roads;
 
+	// Finds the position of an ID, rebuilt after the roads change
+	private volatile IdIndex index;
+
 	/**
 	 * Constructs an empty Collection of roads
 	 */
@@ -32,6 +35,7 @@ public class RoadArray implements Iterable<Road> {
 	 */
 	public void add(Road object) {
 		roads.add(object);
+		index = null;
 	}
 
 	/**
@@ -42,23 +46,7 @@ public class RoadArray implements Iterable<Road> {
 	 * @return True if the Road is contained, otherwise returns False
 	 */
 	public boolean contains(Road object) {
-		if (object == null) {
-			return false;
-		} else {
-			int i = 0;
-			int j = roads.size() - 1;
-			while (i <= j) {
-				int mid = (int) Math.ceil((double) (i + j) / 2);
-				if (roads.get(mid).compareTo(object) == 0) {
-					return true;
-				} else if (roads.get(mid).compareTo(object) > 0) {
-					j = mid - 1;
-				} else {
-					i = mid + 1;
-				}
-			}
-			return false;
-		}
+		return object != null && get(object.getID()) != null;
 	}
 
 	/**
@@ -70,72 +58,45 @@ public class RoadArray implements Iterable<Road> {
 	 *         null
 	 */
 	public Road get(int ID) {
-		int i = 0;
-		int j = roads.size() - 1;
-		while (i <= j) {
-			int mid = (int) Math.ceil((double) (i + j) / 2);
-			if (roads.get(mid).getID() == ID) {
-				return roads.get(mid);
-			} else if (roads.get(mid).getID() > ID) {
-				j = mid - 1;
-			} else {
-				i = mid + 1;
+		IdIndex index = this.index;
+		if (index == null) {
+			int[] ids = new int[roads.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = roads.get(i).getID();
 			}
+			index = new IdIndex(ids, ids.length);
+			this.index = index;
 		}
-		return null;
+		int i = index.get(ID);
+		return i < 0 ? null : roads.get(i);
 	}
 
 	/**
-	 * Sorts the data using the quick sort Algorithm
-	 */
-	public void sort() {
-		quicksort(0, roads.size() - 1);
-	}
-
-	/**
-	 * The quick sort Algorithm
+	 * Returns the number of roads in the collection
 	 * 
-	 * @param low
-	 *            The lower bound of the area to be sorted
-	 * @param high
-	 *            The upper bound of the area being sorted
+	 * @return The number of roads
 	 */
-	private void quicksort(int low, int high) {
-		int i = low;
-		int j = high;
-		int pivot = roads.get(low + (high - low) / 2).getID();
-
-		while (i <= j) {
-			while (roads.get(i).getID() < pivot) {
-				i++;
-			}
-			while (roads.get(j).getID() > pivot) {
-				j--;
-			}
-			if (i <= j) {
-				exchange(i, j);
-				i++;
-				j--;
-			}
-		}
-		if (low < j)
-			quicksort(low, j);
-		if (i < high)
-			quicksort(i, high);
+	public int size() {
+		return roads.size();
 	}
 
 	/**
-	 * Swaps the ith index with the jth index of the storage class
-	 * 
-	 * @param i
-	 *            Index to be switched
-	 * @param j
-	 *            Index to be switched
+	 * Sorts the roads by ID, using the order found by a radix sort of the IDs
 	 */
-	private void exchange(int i, int j) {
-		Road temp = roads.get(i);
-		roads.set(i, roads.get(j));
-		roads.set(j, temp);
+	public void sort() {
+		int[] ids = new int[roads.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = roads.get(i).getID();
+		}
+		if (RadixSort.isSorted(ids, ids.length)) {
+			return;
+		}
+		List<Road> sorted = new ArrayList<Road>(ids.length);
+		for (int i : RadixSort.order(ids, ids.length)) {
+			sorted.add(roads.get(i));
+		}
+		roads = sorted;
+		index = null;
 	}
 
 	@Override
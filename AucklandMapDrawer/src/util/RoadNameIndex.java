@@ -0,0 +1,384 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import core.Road;
+
+/**
+ * An index of road names used for searching, kept as the distinct names in
+ * sorted order rather than a tree of nodes. Names are reduced to their
+ * letters in lower case, so the names starting with a search string are one
+ * run of the sorted names, found by binary search. Listing a run in order
+ * visits the names the same way a depth first walk of a trie would, so
+ * searches give the same roads as the TrieTree this replaced
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class RoadNameIndex {
+
+	// The number of roads a search stops at
+	private static final int LIMIT = 10;
+
+	// The letters of every distinct name back to back, in sorted order
+	private byte[] letters;
+	private int[] nameStarts;
+
+	// The roads of each name, in the order they were given
+	private Road[] roads;
+	private int[] firstRoads;
+
+	private int nameCount;
+
+	/**
+	 * Constructs the index of the given roads. Roads whose name does not start
+	 * with a letter are left out
+	 *
+	 * @param roads
+	 *            The roads to be indexed
+	 */
+	public RoadNameIndex(Iterable<Road> roads) {
+		List<Road> named = new ArrayList<Road>();
+		List<byte[]> names = new ArrayList<byte[]>();
+		for (Road r : roads) {
+			String name = r.getName();
+			if (name.length() > 0 && isLetter(name.toLowerCase().charAt(0))) {
+				named.add(r);
+				names.add(normalise(name));
+			}
+		}
+
+		// A stable sort so roads sharing a name keep their order
+		final byte[][] keys = names.toArray(new byte[names.size()][]);
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return compareNames(keys[a], keys[b]);
+			}
+		});
+
+		int length = 0;
+		for (byte[] key : keys) {
+			length += key.length;
+		}
+		letters = new byte[length];
+		nameStarts = new int[keys.length + 1];
+		firstRoads = new int[keys.length + 1];
+		this.roads = new Road[keys.length];
+		length = 0;
+		for (int i = 0; i < order.length; i++) {
+			byte[] key = keys[order[i]];
+			if (i == 0 || compareNames(key, keys[order[i - 1]]) != 0) {
+				System.arraycopy(key, 0, letters, length, key.length);
+				nameStarts[nameCount] = length;
+				firstRoads[nameCount] = i;
+				nameCount++;
+				length += key.length;
+			}
+			this.roads[i] = named.get(order[i]);
+		}
+		nameStarts[nameCount] = length;
+		firstRoads[nameCount] = keys.length;
+		nameStarts = Arrays.copyOf(nameStarts, nameCount + 1);
+		firstRoads = Arrays.copyOf(firstRoads, nameCount + 1);
+	}
+
+	/**
+	 * Constructs the index from the names and roads of an index that was
+	 * built earlier, as read from a snapshot
+	 *
+	 * @param letters
+	 *            The letters of every name back to back
+	 * @param nameStarts
+	 *            The start of each name within the letters, followed by the
+	 *            number of letters
+	 * @param roads
+	 *            The roads of each name in turn
+	 * @param firstRoads
+	 *            The first road of each name, followed by the number of roads
+	 */
+	public RoadNameIndex(byte[] letters, int[] nameStarts, Road[] roads,
+			int[] firstRoads) {
+		this.letters = letters;
+		this.nameStarts = nameStarts;
+		this.roads = roads;
+		this.firstRoads = firstRoads;
+		nameCount = nameStarts.length - 1;
+	}
+
+	/**
+	 * Returns the number of distinct names
+	 *
+	 * @return The name count
+	 */
+	public int getNameCount() {
+		return nameCount;
+	}
+
+	/**
+	 * Returns where a name starts within the letters of every name
+	 *
+	 * @param name
+	 *            The index of the name, the name count giving the number of
+	 *            letters
+	 * @return The index of the first letter of the name
+	 */
+	public int getNameStart(int name) {
+		return nameStarts[name];
+	}
+
+	/**
+	 * Returns a letter of the names
+	 *
+	 * @param i
+	 *            The index of the letter
+	 * @return The lower case letter
+	 */
+	public byte getLetter(int i) {
+		return letters[i];
+	}
+
+	/**
+	 * Returns where the roads of a name start within the indexed roads
+	 *
+	 * @param name
+	 *            The index of the name, the name count giving the number of
+	 *            roads
+	 * @return The index of the first road of the name
+	 */
+	public int getFirstRoad(int name) {
+		return firstRoads[name];
+	}
+
+	/**
+	 * Returns one of the indexed roads
+	 *
+	 * @param i
+	 *            The index of the road
+	 * @return The road
+	 */
+	public Road getRoad(int i) {
+		return roads[i];
+	}
+
+	/**
+	 * Returns the roads whose names start with the given string, closest
+	 * first. Roads sharing a name are never split, so more than 10 roads can
+	 * be returned, and once past 10 only names one letter longer than a name
+	 * already visited are added, as the trie did
+	 *
+	 * @param s
+	 *            The string to be searched for, an empty string listing the
+	 *            roads of the first letter
+	 * @return A list of roads
+	 */
+	public List<Road> getTen(String s) {
+		List<Road> found = new ArrayList<Road>(LIMIT);
+		byte[] prefix;
+		if (s.length() == 0) {
+			if (nameCount == 0) {
+				return found;
+			}
+			prefix = new byte[] { letters[0] };
+		} else if (isLetter(s.toLowerCase().charAt(0))) {
+			prefix = normalise(s);
+		} else {
+			return found;
+		}
+
+		int name = search(prefix, prefix.length);
+		for (; name < nameCount && startsWith(name, prefix, prefix.length);
+				name++) {
+			addRoads(name, found);
+			if (found.size() == LIMIT) {
+				return found;
+			} else if (found.size() > LIMIT) {
+				break;
+			}
+		}
+		if (found.size() > LIMIT) {
+			addSiblings(name, prefix.length, found);
+		}
+		return found;
+	}
+
+	/**
+	 * Adds the roads of the names a trie would still visit after overrunning
+	 * the limit at the given name. Those are the names made by replacing the
+	 * last letter of one of its prefixes with a later letter, from the longest
+	 * prefix to the shortest below the search string
+	 *
+	 * @param name
+	 *            The index of the name the limit was overrun at
+	 * @param searched
+	 *            The length of the search string
+	 * @param found
+	 *            The roads found so far
+	 */
+	private void addSiblings(int name, int searched, List<Road> found) {
+		int start = nameStarts[name];
+		byte[] key = Arrays.copyOfRange(letters, start, nameStarts[name + 1]);
+		for (int length = key.length; length > searched; length--) {
+			// Jumps from each child of the prefix to the next, rather than
+			// searching for every later letter
+			int c = key[length - 1] + 1;
+			while (c <= 'z') {
+				key[length - 1] = (byte) c;
+				int sibling = search(key, length);
+				if (sibling == nameCount
+						|| !startsWith(sibling, key, length - 1)) {
+					break;
+				}
+				c = letters[nameStarts[sibling] + length - 1];
+				if (nameStarts[sibling + 1] - nameStarts[sibling] == length) {
+					addRoads(sibling, found);
+				}
+				c++;
+			}
+			key[length - 1] = letters[start + length - 1];
+		}
+	}
+
+	/**
+	 * Adds every road of a name to a list
+	 *
+	 * @param name
+	 *            The index of the name
+	 * @param found
+	 *            The list being added to
+	 */
+	private void addRoads(int name, List<Road> found) {
+		for (int i = firstRoads[name]; i < firstRoads[name + 1]; i++) {
+			found.add(roads[i]);
+		}
+	}
+
+	/**
+	 * Finds the first name that is not before the given letters
+	 *
+	 * @param key
+	 *            The letters being searched for
+	 * @param length
+	 *            The number of letters of the key to use
+	 * @return The index of the name, the number of names if every name is
+	 *         before the key
+	 */
+	private int search(byte[] key, int length) {
+		int low = 0;
+		int high = nameCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareName(middle, key, length) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a stored name with some letters
+	 *
+	 * @param name
+	 *            The index of the name
+	 * @param key
+	 *            The letters being compared
+	 * @param length
+	 *            The number of letters of the key to use
+	 * @return Negative if the name comes first, positive if the letters come
+	 *         first and zero if they are the same
+	 */
+	private int compareName(int name, byte[] key, int length) {
+		int start = nameStarts[name];
+		int nameLength = nameStarts[name + 1] - start;
+		for (int i = 0; i < nameLength && i < length; i++) {
+			if (letters[start + i] != key[i]) {
+				return letters[start + i] - key[i];
+			}
+		}
+		return nameLength - length;
+	}
+
+	/**
+	 * Checks whether a stored name starts with the first letters of a key
+	 *
+	 * @param name
+	 *            The index of the name
+	 * @param key
+	 *            The letters
+	 * @param length
+	 *            The number of letters of the key to use
+	 * @return True if the name starts with those letters
+	 */
+	private boolean startsWith(int name, byte[] key, int length) {
+		int start = nameStarts[name];
+		if (nameStarts[name + 1] - start < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (letters[start + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two names by their letters
+	 *
+	 * @param a
+	 *            The first name
+	 * @param b
+	 *            The second name
+	 * @return Negative if a comes first, positive if b comes first and zero
+	 *         if they are the same
+	 */
+	private static int compareNames(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length && i < b.length; i++) {
+			if (a[i] != b[i]) {
+				return a[i] - b[i];
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Removes all special characters and spaces from the given name, leaving
+	 * its letters in lower case
+	 *
+	 * @param name
+	 *            The name to be processed
+	 * @return The letters of the name
+	 */
+	private static byte[] normalise(String name) {
+		String lower = name.toLowerCase();
+		byte[] key = new byte[lower.length()];
+		int length = 0;
+		for (int i = 0; i < lower.length(); i++) {
+			char c = lower.charAt(i);
+			if (isLetter(c)) {
+				key[length++] = (byte) c;
+			}
+		}
+		return Arrays.copyOf(key, length);
+	}
+
+	/**
+	 * Checks whether a character is a lower case letter
+	 *
+	 * @param c
+	 *            The character to be checked
+	 * @return True if the character is between a and z
+	 */
+	private static boolean isLetter(char c) {
+		return c >= 'a' && c <= 'z';
+	}
+}
@@ -0,0 +1,101 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Stores each distinct string once and hands out a small integer code for
+ * it, so objects sharing a name can hold the code instead of their own copy
+ * of the string. Codes are found through an open addressing table of ints
+ * rather than a map of boxed entries. Strings can be added from several
+ * loading threads at once
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class StringDictionary {
+
+	// The strings indexed by their code
+	private String[] strings = new String[64];
+	private int size;
+
+	// Codes of the strings by hash, -1 for an empty slot
+	private int[] table = newTable(128);
+
+	/**
+	 * Returns the code of the given string, adding it to the dictionary if it
+	 * has not been seen before
+	 *
+	 * @param s
+	 *            The string to be encoded
+	 * @return The code of the string
+	 */
+	public synchronized int add(String s) {
+		int slot = slot(s);
+		if (table[slot] >= 0) {
+			return table[slot];
+		}
+		if (size == strings.length) {
+			strings = Arrays.copyOf(strings, size * 2);
+		}
+		strings[size] = s;
+		table[slot] = size;
+		if (++size * 2 > table.length) {
+			table = newTable(table.length * 2);
+			for (int code = 0; code < size; code++) {
+				table[slot(strings[code])] = code;
+			}
+		}
+		return size - 1;
+	}
+
+	/**
+	 * Returns the string with the given code
+	 *
+	 * @param code
+	 *            The code of the string
+	 * @return The string
+	 */
+	public synchronized String get(int code) {
+		return strings[code];
+	}
+
+	/**
+	 * Returns the number of distinct strings in the dictionary
+	 *
+	 * @return The number of strings
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the slot of the table holding the string's code, or the empty
+	 * slot it would be placed in
+	 *
+	 * @param s
+	 *            The string being searched for
+	 * @return The index of the slot
+	 */
+	private int slot(String s) {
+		int h = s.hashCode() * 0x9e3779b9;
+		int mask = table.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (table[slot] >= 0 && !strings[table[slot]].equals(s)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Creates an empty table
+	 *
+	 * @param capacity
+	 *            The number of slots, a power of two
+	 * @return The table with every slot empty
+	 */
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		return table;
+	}
+}
@@ -0,0 +1,231 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads tab separated data files by memory mapping them and parsing line
+ * aligned chunks of the file on all available cores
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class TabFile {
+
+	// Chunks smaller than this are not worth handing to another thread
+	private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+	// How many lines are parsed between progress updates
+	private static final int PROGRESS_LINES = 4096;
+
+	/**
+	 * Converts a single line of a tab file into an object
+	 *
+	 * @author Oliver Greenaway
+	 *
+	 * @param <T>
+	 *            The type of object created from each line
+	 */
+	public interface LineParser<T> {
+
+		/**
+		 * Parses the line the cursor is pointing at
+		 *
+		 * @param line
+		 *            The cursor over the line being parsed
+		 * @return The parsed object, or null if the line should be ignored
+		 */
+		T parse(TabLine line);
+	}
+
+	/**
+	 * Parses every line of the file in parallel, returning the results in the
+	 * same order as the lines appear in the file
+	 *
+	 * @param file
+	 *            The file to be read
+	 * @param skipHeader
+	 *            True if the first line contains column names
+	 * @param parser
+	 *            The parser used to convert each line
+	 * @return A list of the parsed objects
+	 * @throws IOException
+	 *             If the file can not be read or a line can not be parsed
+	 */
+	public static <T> List<T> parse(File file, boolean skipHeader,
+			LineParser<T> parser) throws IOException {
+		return parse(file, skipHeader, parser, null);
+	}
+
+	/**
+	 * Parses every line of the file in parallel, returning the results in the
+	 * same order as the lines appear in the file and reporting the bytes and
+	 * lines read under the name of the file
+	 *
+	 * @param file
+	 *            The file to be read
+	 * @param skipHeader
+	 *            True if the first line contains column names
+	 * @param parser
+	 *            The parser used to convert each line
+	 * @param progress
+	 *            The progress of the load, may be null
+	 * @return A list of the parsed objects
+	 * @throws IOException
+	 *             If the file can not be read or a line can not be parsed
+	 * @throws CancellationException
+	 *             If the load is cancelled while the file is being read
+	 */
+	public static <T> List<T> parse(File file, boolean skipHeader,
+			final LineParser<T> parser, final LoadProgress progress)
+			throws IOException {
+		final ByteBuffer buffer = map(file);
+		final String name = file.getName();
+		if (progress != null) {
+			progress.addFile(name, buffer.limit());
+		}
+		int start = 0;
+		if (skipHeader) {
+			start = lineEnd(buffer, 0) + 1;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, (buffer.limit() - start)
+				/ (threads * 4) + 1);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<List<T>>> chunks = new ArrayList<Future<List<T>>>();
+			while (start < buffer.limit()) {
+				int end = Math.min(buffer.limit(), start + chunkSize);
+				end = Math.min(buffer.limit(), lineEnd(buffer, end) + 1);
+				final int chunkStart = start;
+				final int chunkEnd = end;
+				chunks.add(pool.submit(new Callable<List<T>>() {
+					public List<T> call() {
+						return parseChunk(buffer.duplicate(), chunkStart,
+								chunkEnd, parser, progress, name);
+					}
+				}));
+				start = end;
+			}
+
+			List<T> results = new ArrayList<T>();
+			for (Future<List<T>> chunk : chunks) {
+				results.addAll(chunk.get());
+			}
+			if (progress != null) {
+				progress.finish(name);
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + file, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CancellationException) {
+				throw (CancellationException) e.getCause();
+			}
+			throw new IOException("Failed to parse " + file, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Memory maps the whole of the given file for reading
+	 *
+	 * @param file
+	 *            The file to be mapped
+	 * @return A buffer containing the file
+	 * @throws IOException
+	 *             If the file can not be mapped
+	 */
+	public static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Parses every line between the given positions
+	 *
+	 * @param buffer
+	 *            The buffer containing the file
+	 * @param start
+	 *            The index of the first line in the chunk
+	 * @param end
+	 *            The index after the last line in the chunk
+	 * @param parser
+	 *            The parser used to convert each line
+	 * @param progress
+	 *            The progress of the load, may be null
+	 * @param name
+	 *            The name the file's progress is reported under
+	 * @return The parsed objects in file order
+	 */
+	private static <T> List<T> parseChunk(ByteBuffer buffer, int start,
+			int end, LineParser<T> parser, LoadProgress progress, String name) {
+		List<T> results = new ArrayList<T>();
+		TabLine line = new TabLine(buffer);
+		int reported = start;
+		int lines = 0;
+		while (start < end) {
+			int lineEnd = Math.min(end, lineEnd(buffer, start));
+			int contentEnd = lineEnd;
+			if (contentEnd > start && buffer.get(contentEnd - 1) == '\r') {
+				contentEnd--;
+			}
+			if (contentEnd > start) {
+				line.reset(start, contentEnd);
+				T result = parser.parse(line);
+				if (result != null) {
+					results.add(result);
+				}
+			}
+			start = lineEnd + 1;
+			if (progress != null && ++lines == PROGRESS_LINES) {
+				progress.checkCancelled();
+				progress.advance(name, start - reported, lines);
+				reported = start;
+				lines = 0;
+			}
+		}
+		if (progress != null) {
+			progress.advance(name, end - reported, lines);
+		}
+		return results;
+	}
+
+	/**
+	 * Finds the end of the line containing the given position
+	 *
+	 * @param buffer
+	 *            The buffer containing the file
+	 * @param position
+	 *            A position within the line
+	 * @return The index of the newline character, or the buffer limit
+	 */
+	private static int lineEnd(ByteBuffer buffer, int position) {
+		int limit = buffer.limit();
+		while (position < limit && buffer.get(position) != '\n') {
+			position++;
+		}
+		return position;
+	}
+}
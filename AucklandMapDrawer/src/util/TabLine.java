@@ -0,0 +1,221 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A cursor over a single tab separated line of a memory mapped file. Fields
+ * are read in order straight from the underlying bytes so numeric columns do
+ * not need an intermediate String
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class TabLine {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	// Exact powers of ten, used to scale parsed decimal digits
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+			1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// The largest mantissa that can be represented exactly by a double
+	private static final long MAX_EXACT = 1L << 53;
+
+	private ByteBuffer buffer;
+	private int position, end;
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Constructs a cursor reading from the given buffer
+	 *
+	 * @param buffer
+	 *            The buffer containing the file
+	 */
+	public TabLine(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Points the cursor at a new line
+	 *
+	 * @param start
+	 *            The index of the first byte of the line
+	 * @param end
+	 *            The index after the last byte of the line
+	 */
+	void reset(int start, int end) {
+		this.position = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns whether there are any fields left to read on the line
+	 *
+	 * @return True if another field can be read
+	 */
+	public boolean hasNext() {
+		return position < end;
+	}
+
+	/**
+	 * Skips over the current field
+	 */
+	public void skip() {
+		position = fieldEnd() + 1;
+	}
+
+	/**
+	 * Reads the current field as a String
+	 *
+	 * @return The field
+	 */
+	public String nextString() {
+		int fieldEnd = fieldEnd();
+		int length = fieldEnd - position;
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = buffer.get(position + i);
+		}
+		position = fieldEnd + 1;
+		return new String(scratch, 0, length, CHARSET);
+	}
+
+	/**
+	 * Reads the current field as an int
+	 *
+	 * @return The integer value of the field
+	 * @throws NumberFormatException
+	 *             If the field is not an integer
+	 */
+	public int nextInt() {
+		int fieldEnd = fieldEnd();
+		int i = position;
+		boolean negative = false;
+		if (i < fieldEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		if (i == fieldEnd || fieldEnd - i > 10) {
+			return Integer.parseInt(nextString());
+		}
+		long value = 0;
+		for (; i < fieldEnd; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(nextString());
+			}
+			value = value * 10 + digit;
+		}
+		value = negative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return Integer.parseInt(nextString());
+		}
+		position = fieldEnd + 1;
+		return (int) value;
+	}
+
+	/**
+	 * Reads the current field as an int, returning the default value if the
+	 * field is not an integer
+	 *
+	 * @param defaultValue
+	 *            The value returned on a conversion error
+	 * @return The integer value of the field
+	 */
+	public int nextInt(int defaultValue) {
+		int fieldEnd = fieldEnd();
+		try {
+			return nextInt();
+		} catch (NumberFormatException e) {
+			position = fieldEnd + 1;
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Reads the current field as a double. Plain decimals are converted
+	 * directly from the digits, anything else is handed to
+	 * Double.parseDouble
+	 *
+	 * @return The double value of the field
+	 * @throws NumberFormatException
+	 *             If the field is not a number
+	 */
+	public double nextDouble() {
+		int fieldEnd = fieldEnd();
+		double value = parseDouble(buffer, position, fieldEnd);
+		position = fieldEnd + 1;
+		return value;
+	}
+
+	/**
+	 * Converts the bytes between the given positions into a double. Plain
+	 * decimals are converted directly from the digits, anything else is
+	 * handed to Double.parseDouble
+	 *
+	 * @param buffer
+	 *            The buffer containing the number
+	 * @param start
+	 *            The index of the first byte of the number
+	 * @param end
+	 *            The index after the last byte of the number
+	 * @return The double value of the bytes
+	 * @throws NumberFormatException
+	 *             If the bytes are not a number
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+				if (digits > 18) {
+					break;
+				}
+			} else if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i != end || digits == 0 || mantissa >= MAX_EXACT
+				|| decimals >= POWERS.length) {
+			byte[] bytes = new byte[end - start];
+			for (int j = 0; j < bytes.length; j++) {
+				bytes[j] = buffer.get(start + j);
+			}
+			return Double.parseDouble(new String(bytes, CHARSET).trim());
+		}
+		double value = decimals > 0 ? mantissa / POWERS[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Finds the index of the tab or end of line closing the current field
+	 *
+	 * @return The index after the last byte of the field
+	 */
+	private int fieldEnd() {
+		int i = position;
+		while (i < end && buffer.get(i) != '\t') {
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,228 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Holds square images of parts of the map that have already been drawn, so
+ * they can be copied to the screen instead of being drawn again. A tile is
+ * found by the zoom level it was drawn at and its column and row at that
+ * zoom. The cache holds at most a given number of bytes of pixels, throwing
+ * away the tiles used least recently once it is full
+ *
+ * @author Oliver Greenaway
+ *
+ */
+public class TileCache {
+
+	// Bytes of pixels the cache can hold
+	private long capacity;
+	private long size;
+
+	// Tiles in order of use, least recently used first
+	private LinkedHashMap<Key, BufferedImage> tiles = new LinkedHashMap<Key, BufferedImage>(
+			16, 0.75f, true);
+
+	// Statistics since the cache was made
+	private long hits, misses, evictions;
+
+	// Reused to look tiles up without allocating a key
+	private Key probe = new Key(0, 0, 0);
+
+	/**
+	 * Constructs an empty cache
+	 *
+	 * @param capacity
+	 *            The number of bytes of pixels the cache can hold
+	 */
+	public TileCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the tile at the given position, marking it as used
+	 *
+	 * @param zoom
+	 *            The zoom level the tile was drawn at
+	 * @param column
+	 *            The column of the tile
+	 * @param row
+	 *            The row of the tile
+	 * @return The tile, null if it is not in the cache
+	 */
+	public synchronized BufferedImage get(double zoom, int column, int row) {
+		probe.set(zoom, column, row);
+		BufferedImage tile = tiles.get(probe);
+		if (tile == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return tile;
+	}
+
+	/**
+	 * Adds a tile to the cache, throwing away the least recently used tiles
+	 * until it fits
+	 *
+	 * @param zoom
+	 *            The zoom level the tile was drawn at
+	 * @param column
+	 *            The column of the tile
+	 * @param row
+	 *            The row of the tile
+	 * @param tile
+	 *            The drawn tile
+	 */
+	public synchronized void put(double zoom, int column, int row,
+			BufferedImage tile) {
+		BufferedImage old = tiles.put(new Key(zoom, column, row), tile);
+		if (old != null) {
+			size -= bytes(old);
+		}
+		size += bytes(tile);
+		Iterator<BufferedImage> eldest = tiles.values().iterator();
+		while (size > capacity && eldest.hasNext()) {
+			BufferedImage evicted = eldest.next();
+			if (evicted == tile) {
+				// The newest tile is kept even if it is larger than the cache
+				break;
+			}
+			eldest.remove();
+			size -= bytes(evicted);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Throws away every tile, as the map they show has changed
+	 */
+	public synchronized void clear() {
+		tiles.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of tiles in the cache
+	 *
+	 * @return The tile count
+	 */
+	public synchronized int getTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * Returns the bytes of pixels held by the cache
+	 *
+	 * @return The size of the cached tiles
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the bytes of pixels the cache can hold
+	 *
+	 * @return The capacity of the cache
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of times a tile was found in the cache
+	 *
+	 * @return The hit count
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of times a tile was not in the cache
+	 *
+	 * @return The miss count
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups that found their tile
+	 *
+	 * @return A value between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * Returns the number of tiles thrown away to make room for others
+	 *
+	 * @return The eviction count
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the size, hit rate and evictions of the cache
+	 *
+	 * @return The statistics of the cache
+	 */
+	@Override
+	public synchronized String toString() {
+		return tiles.size() + " tiles, " + (size >> 10) + " of "
+				+ (capacity >> 10) + " KB, "
+				+ (int) Math.round(getHitRate() * 100) + "% hits, "
+				+ evictions + " evictions";
+	}
+
+	/**
+	 * Returns the number of bytes of pixels in an image
+	 *
+	 * @param image
+	 *            The image
+	 * @return The size of its pixels
+	 */
+	private static long bytes(BufferedImage image) {
+		DataBuffer pixels = image.getRaster().getDataBuffer();
+		return (long) pixels.getSize() * pixels.getNumBanks()
+				* DataBuffer.getDataTypeSize(pixels.getDataType()) / 8;
+	}
+
+	/**
+	 * The zoom level, column and row of a tile
+	 */
+	private static class Key {
+
+		private long zoom;
+		private int column, row;
+
+		private Key(double zoom, int column, int row) {
+			set(zoom, column, row);
+		}
+
+		private void set(double zoom, int column, int row) {
+			this.zoom = Double.doubleToLongBits(zoom);
+			this.column = column;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return key.zoom == zoom && key.column == column && key.row == row;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (zoom ^ zoom >>> 32) * 961 + column * 31 + row;
+		}
+	}
+}